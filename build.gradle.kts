@@ -1,5 +1,6 @@
 plugins {
     id("java")
+    id("me.champeau.jmh") version "0.7.3"
 }
 
 group = "plc.project"
@@ -19,6 +20,24 @@ java {
     sourceCompatibility = JavaVersion.VERSION_24
 }
 
+//The lexer's SIMD fast path (VectorScanner) uses the incubating Vector API.
+tasks.withType<JavaCompile> {
+    options.compilerArgs.add("--add-modules=jdk.incubator.vector")
+}
+
+tasks.withType<JavaExec> {
+    jvmArgs("--add-modules=jdk.incubator.vector")
+}
+
 tasks.test {
     useJUnitPlatform()
+    jvmArgs("--add-modules=jdk.incubator.vector")
+}
+
+//Benchmarks in src/jmh/java, run with ./gradlew jmh (results in build/results/jmh).
+jmh {
+    jmhVersion = "1.37"
+    profilers = listOf("gc")
+    jvmArgsAppend = listOf("--add-modules=jdk.incubator.vector")
+    resultFormat = "JSON"
 }
@@ -0,0 +1,202 @@
+package plc.project;
+
+/**
+ * Scripts used by the benchmarks, selected by name through a JMH
+ * {@code @Param}. Each is a representative program or a synthetic stress test
+ * of one dimension (expression depth, operator density, loop bodies, objects,
+ * literal size, whitespace).
+ */
+public final class Corpus {
+
+    public static final String REPRESENTATIVE = "representative";
+    public static final String DEEP = "deep";
+    public static final String OPERATORS = "operators";
+    public static final String LOOPS = "loops";
+    public static final String OBJECTS = "objects";
+    public static final String LITERALS = "literals";
+    public static final String VARIABLES = "variables";
+    public static final String WHITESPACE = "whitespace";
+
+    public static String get(String name) {
+        return switch (name) {
+            case REPRESENTATIVE -> representative(100);
+            case DEEP -> deepExpressions(100, 100);
+            case OPERATORS -> operatorDense(1000, 50);
+            case LOOPS -> longLoops(100, 50);
+            case OBJECTS -> manyObjects(1000);
+            case LITERALS -> bigLiterals(100, 10_000);
+            case WHITESPACE -> generated(1000);
+            default -> throw new IllegalArgumentException("Unknown corpus: " + name);
+        };
+    }
+
+    /**
+     * Returns scripts using only what the evaluator currently implements
+     * (LET, assignments, literals, groups, and variables); the other corpora
+     * are added to the evaluator benchmark as the features are implemented.
+     */
+    public static String getEvaluable(String name) {
+        return switch (name) {
+            case DEEP -> deepGroups(100, 100);
+            case LITERALS -> bigLiterals(100, 10_000);
+            case VARIABLES -> variables(10_000);
+            default -> throw new IllegalArgumentException("Unknown evaluable corpus: " + name);
+        };
+    }
+
+    /**
+     * A program using every statement and most expressions, with comments,
+     * repeated under different names.
+     */
+    public static String representative(int count) {
+        var builder = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            builder.append("""
+                // Computes the sum of the first n values, or -1.
+                DEF sum%1$d(n) DO
+                    LET total = 0;
+                    FOR i IN range(0, n) DO
+                        IF i < n / 2 AND total != -1 DO
+                            total = total + i * 2;
+                        ELSE
+                            total = total - 1.5e2;
+                        END
+                    END
+                    RETURN total;
+                END
+                LET point%1$d = OBJECT DO
+                    LET x = 1;
+                    LET y = 2.0;
+                    DEF norm() DO RETURN this.x * this.x + this.y * this.y; END
+                END;
+                print("sum: " + sum%1$d(10) + ", norm: " + point%1$d.norm() + '\\n');
+                """.formatted(i));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Expressions nested depth levels deep through groups and binary
+     * operators, e.g. (1 + (2 * (3 - ...))).
+     */
+    public static String deepExpressions(int count, int depth) {
+        var operators = new String[] {"+", "*", "-", "/", "<", "AND"};
+        var builder = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            builder.append("LET deep").append(i).append(" = ");
+            for (int j = 0; j < depth; j++) {
+                builder.append("(").append(j).append(" ").append(operators[j % operators.length]).append(" ");
+            }
+            builder.append("x").append(")".repeat(depth)).append(";\n");
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Long, flat expressions mixing operators of every precedence, e.g.
+     * a0 * 1 + b0 < c0 - 2 / d0 AND ..., where most tokens are operators.
+     */
+    public static String operatorDense(int count, int length) {
+        var operators = new String[] {"*", "+", "<", "-", "/", "==", "AND", "<=", "OR", "!="};
+        var builder = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            builder.append("LET dense").append(i).append(" = x");
+            for (int j = 0; j < length; j++) {
+                builder.append(" ").append(operators[(i + j) % operators.length]).append(" ");
+                builder.append(j % 2 == 0 ? "v" + j : String.valueOf(j));
+            }
+            builder.append(";\n");
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Nested loops with long bodies of assignments.
+     */
+    public static String longLoops(int count, int length) {
+        var builder = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            builder.append("FOR i IN range(0, 1000000) DO\n");
+            builder.append("    FOR j IN range(0, i) DO\n");
+            for (int j = 0; j < length; j++) {
+                builder.append("        total").append(j).append(" = total").append(j).append(" + i * j;\n");
+            }
+            builder.append("    END\n");
+            builder.append("END\n");
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Objects with fields, methods, and property/method accesses.
+     */
+    public static String manyObjects(int count) {
+        var builder = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            builder.append("""
+                LET object%1$d = OBJECT Name%1$d DO
+                    LET field = %1$d;
+                    LET other = object;
+                    DEF method(a, b) DO RETURN this.field + a.property + b.method(); END
+                END;
+                object%1$d.field = object%1$d.method(object, object).other.property;
+                """.formatted(i));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Long string literals with escapes and long numbers.
+     */
+    public static String bigLiterals(int count, int length) {
+        var string = "Lorem ipsum\\t\\\"dolor\\\" sit amet.\\n".repeat(length / 32);
+        var digits = "1234567890".repeat(length / 1000);
+        var builder = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            builder.append("LET string").append(i).append(" = \"").append(string).append("\";\n");
+            builder.append("LET integer").append(i).append(" = ").append(digits).append(";\n");
+            builder.append("LET decimal").append(i).append(" = ").append(digits).append(".").append(digits).append("e-10;\n");
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Mimics generated code, which is mostly indentation and comments.
+     */
+    public static String generated(int count) {
+        var builder = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            var indent = " ".repeat(4 * (i % 8));
+            builder.append(indent).append("// ").append("=".repeat(76)).append("\n");
+            builder.append(indent).append("// Generated from rule ").append(i).append(", do not edit.\n");
+            builder.append(indent).append("// ").append("=".repeat(76)).append("\n\n");
+            builder.append(indent).append("LET value").append(i).append(" = ").append(i).append(";\n\n\n");
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Expressions nested depth levels deep through groups only, e.g. (((1))).
+     */
+    public static String deepGroups(int count, int depth) {
+        var builder = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            builder.append("LET group").append(i).append(" = ")
+                .append("(".repeat(depth)).append(i).append(")".repeat(depth)).append(";\n");
+        }
+        return builder.toString();
+    }
+
+    /**
+     * A chain of variable definitions, lookups, and assignments.
+     */
+    public static String variables(int count) {
+        var builder = new StringBuilder("LET v0 = 0;\n");
+        for (int i = 1; i < count; i++) {
+            builder.append("LET v").append(i).append(" = v").append(i - 1).append(";\n");
+            builder.append("v").append(i - 1).append(" = v").append(i).append(";\n");
+        }
+        return builder.toString();
+    }
+
+}
@@ -0,0 +1,52 @@
+package plc.project.evaluator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import plc.project.Corpus;
+import plc.project.lexer.LexException;
+import plc.project.lexer.Lexer;
+import plc.project.parser.Ast;
+import plc.project.parser.ParseException;
+import plc.project.parser.Parser;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Evaluates pre-parsed programs in a new scope (under the shared global
+ * environment) each time, so definitions don't conflict across invocations.
+ * See {@link Corpus#getEvaluable} for the scripts that are supported.
+ */
+@State(org.openjdk.jmh.annotations.Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EvaluatorBenchmark {
+
+    @Param({Corpus.DEEP, Corpus.LITERALS, Corpus.VARIABLES})
+    public String corpus;
+
+    private Scope globals;
+    private Ast.Source source;
+
+    @Setup
+    public void setup() throws LexException, ParseException {
+        globals = Environment.scope();
+        source = (Ast.Source) new Parser(new Lexer(Corpus.getEvaluable(corpus)).lexBuffer()).parse("source");
+    }
+
+    @Benchmark
+    public RuntimeValue visit() throws EvaluateException {
+        return new Evaluator(new Scope(globals)).visit(source);
+    }
+
+}
@@ -0,0 +1,78 @@
+package plc.project.lexer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import plc.project.Corpus;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LexerBenchmark {
+
+    @Param({Corpus.REPRESENTATIVE, Corpus.DEEP, Corpus.LOOPS, Corpus.OBJECTS, Corpus.LITERALS, Corpus.WHITESPACE})
+    public String corpus;
+
+    private String input;
+    private Path path;
+
+    @Setup
+    public void setup() throws IOException {
+        input = Corpus.get(corpus);
+        path = Files.createTempFile("benchmark", ".plc");
+        Files.writeString(path, input);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(path);
+    }
+
+    @Benchmark
+    public List<Token> lex() throws LexException {
+        return new Lexer(input).lex();
+    }
+
+    /**
+     * Lexes without materializing a Token (and literal) per token, which is
+     * what the parser uses.
+     */
+    @Benchmark
+    public TokenBuffer lexBuffer() throws LexException {
+        return new Lexer(input).lexBuffer();
+    }
+
+    /**
+     * Lexes the memory-mapped file, skipping whitespace and comments with
+     * the Vector API (see VectorScanner).
+     */
+    @Benchmark
+    public TokenBuffer lexPath() throws IOException, LexException {
+        return Lexer.fromPath(path).lexBuffer();
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsPrepend = "-Dplc.lexer.vector=false")
+    public TokenBuffer lexPathScalar() throws IOException, LexException {
+        return Lexer.fromPath(path).lexBuffer();
+    }
+
+}
@@ -0,0 +1,84 @@
+package plc.project.parser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import plc.project.Corpus;
+import plc.project.lexer.LexException;
+import plc.project.lexer.Lexer;
+import plc.project.lexer.TokenBuffer;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parses pre-lexed tokens, so only the parser itself is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParserBenchmark {
+
+    @Param({Corpus.REPRESENTATIVE, Corpus.DEEP, Corpus.OPERATORS, Corpus.LOOPS, Corpus.OBJECTS, Corpus.LITERALS})
+    public String corpus;
+
+    private TokenBuffer tokens;
+    private Ast.Source ast;
+    private byte[] encoded;
+    private ForkJoinPool pool;
+
+    @Setup
+    public void setup() throws LexException, ParseException {
+        tokens = new Lexer(Corpus.get(corpus)).lexBuffer();
+        ast = (Ast.Source) new Parser(tokens).parse("source");
+        encoded = AstCodec.encode(ast);
+        pool = new ForkJoinPool();
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public Ast parse() throws ParseException {
+        return new Parser(tokens).parse("source");
+    }
+
+    @Benchmark
+    public Ast parseParallel() throws ParseException {
+        return new Parser(tokens).parseParallel(pool);
+    }
+
+    /**
+     * Loads the AST as from an {@link AstCache} entry, to compare against
+     * lexing (see LexerBenchmark) and parsing.
+     */
+    @Benchmark
+    public Ast decode() {
+        return AstCodec.decode(encoded);
+    }
+
+    @Benchmark
+    public AstArena toArena() {
+        return AstArena.of(ast);
+    }
+
+    @Benchmark
+    public Ast intern() {
+        return new AstInterner().intern(ast);
+    }
+
+}
@@ -1,10 +1,19 @@
 package plc.project;
 
+import plc.project.evaluator.Environment;
+import plc.project.evaluator.EvaluateException;
+import plc.project.evaluator.Evaluator;
+import plc.project.evaluator.Scope;
 import plc.project.lexer.LexException;
 import plc.project.lexer.Lexer;
+import plc.project.parser.AstCache;
 import plc.project.parser.ParseException;
 import plc.project.parser.Parser;
 
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Map;
 import java.util.Scanner;
 import java.util.function.Function;
@@ -19,17 +28,27 @@ import java.util.stream.Collectors;
 public final class Main {
 
     private interface Repl {
-        void evaluate(String input) throws LexException, ParseException;
+        void evaluate(String input) throws LexException, ParseException, EvaluateException;
     }
 
     private static final Repl REPL = Main::parser; //edit for manual testing
 
     public static void main(String[] args) {
+        if (args.length > 0) {
+            for (var arg : args) {
+                try {
+                    script(Path.of(arg));
+                } catch (IOException | LexException | ParseException | EvaluateException e) {
+                    System.out.println(e.getClass().getSimpleName() + ": " + e.getMessage());
+                }
+            }
+            return;
+        }
         while (true) {
             var input = readInput();
             try {
                 REPL.evaluate(input);
-            } catch (LexException | ParseException e) {
+            } catch (LexException | ParseException | EvaluateException e) {
                 System.out.println(e.getClass().getSimpleName() + ": " + e.getMessage());
             } catch (RuntimeException e) {
                 e.printStackTrace(System.err);
@@ -51,6 +70,31 @@ public final class Main {
         System.out.println(prettify(ast.toString()));
     }
 
+    private static final Evaluator EVALUATOR = new Evaluator(new Scope(Environment.scope()));
+
+    /**
+     * Evaluates each statement as soon as it is parsed, streaming tokens from
+     * the lexer, with variables kept between inputs.
+     */
+    private static void evaluator(String input) throws ParseException, EvaluateException {
+        var parser = new Parser(new Lexer(new StringReader(input)));
+        var value = EVALUATOR.evaluate(parser.statements());
+        System.out.println(value);
+    }
+
+    private static final AstCache CACHE = new AstCache(Path.of(System.getProperty("plc.cache", ".plc-cache")));
+
+    /**
+     * Evaluates a script file given as an argument, loading the AST from the
+     * cache (see the plc.cache property) if the script hasn't changed since
+     * it was last parsed.
+     */
+    private static void script(Path path) throws IOException, LexException, ParseException, EvaluateException {
+        var ast = CACHE.parse(Files.readString(path));
+        var value = EVALUATOR.visit(ast);
+        System.out.println(value);
+    }
+
     private static final Scanner SCANNER = new Scanner(System.in);
 
     private static String readInput() {
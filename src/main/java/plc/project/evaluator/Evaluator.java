@@ -1,7 +1,10 @@
 package plc.project.evaluator;
 
 import plc.project.parser.Ast;
+import plc.project.parser.ParseException;
+import plc.project.parser.UncheckedParseException;
 
+import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
 
@@ -17,6 +20,25 @@ public final class Evaluator implements Ast.Visitor<RuntimeValue, EvaluateExcept
         return scope;
     }
 
+    /**
+     * Evaluates statements as they are parsed (see
+     * {@link plc.project.parser.Parser#statements()}), returning the value of
+     * the last one like {@link #visit(Ast.Source)}. Statements run before
+     * the rest of the source is parsed, so a ParseException is only thrown
+     * once the statements before it have been evaluated.
+     */
+    public RuntimeValue evaluate(Iterator<Ast.Stmt> statements) throws ParseException, EvaluateException {
+        RuntimeValue value = new RuntimeValue.Primitive(null);
+        try {
+            while (statements.hasNext()) {
+                value = visit(statements.next());
+            }
+        } catch (UncheckedParseException e) {
+            throw e.getCause();
+        }
+        return value;
+    }
+
     @Override
     public RuntimeValue visit(Ast.Source ast) throws EvaluateException {
         RuntimeValue value = new RuntimeValue.Primitive(null);
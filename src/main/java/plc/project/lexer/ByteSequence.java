@@ -0,0 +1,52 @@
+package plc.project.lexer;
+
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A {@link CharSequence} view of UTF-8 bytes (e.g. a memory-mapped file) with
+ * one char per byte, so the lexer can run directly over the bytes and token
+ * offsets are byte offsets. This is exact for ASCII, which covers everything
+ * in the grammar outside of string/character literals and comments. The lexer
+ * decodes multi-byte sequences in string/character values as it lexes them,
+ * and other literals are decoded only when converted with {@link #toString()}.
+ */
+final class ByteSequence implements CharSequence {
+
+    private final ByteBuffer bytes;
+
+    ByteSequence(ByteBuffer bytes) {
+        this.bytes = bytes.slice();
+    }
+
+    /**
+     * Returns the bytes as a segment, for {@link VectorScanner}.
+     */
+    MemorySegment segment() {
+        return MemorySegment.ofBuffer(bytes);
+    }
+
+    @Override
+    public int length() {
+        return bytes.limit();
+    }
+
+    @Override
+    public char charAt(int index) {
+        return (char) (bytes.get(index) & 0xFF);
+    }
+
+    @Override
+    public ByteSequence subSequence(int start, int end) {
+        return new ByteSequence(bytes.slice(start, end - start));
+    }
+
+    @Override
+    public String toString() {
+        var array = new byte[bytes.limit()];
+        bytes.get(0, array);
+        return new String(array, StandardCharsets.UTF_8);
+    }
+
+}
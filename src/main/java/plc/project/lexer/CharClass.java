@@ -0,0 +1,70 @@
+package plc.project.lexer;
+
+/**
+ * A precompiled set of characters, replacing the one-character regex patterns
+ * previously passed to {@code CharStream#peek}. ASCII membership is a lookup
+ * in a 128-bit table, while all non-ASCII characters share a single flag,
+ * which is sufficient for the grammar since every class is either ASCII-only
+ * or a negation of one (e.g. {@code [^'\n\r\\]}).
+ */
+final class CharClass {
+
+    private final long low;
+    private final long high;
+    private final boolean nonAscii;
+
+    private CharClass(long low, long high, boolean nonAscii) {
+        this.low = low;
+        this.high = high;
+        this.nonAscii = nonAscii;
+    }
+
+    /**
+     * Returns a class matching any of the given (ASCII) characters.
+     */
+    static CharClass anyOf(String characters) {
+        long low = 0, high = 0;
+        for (int i = 0; i < characters.length(); i++) {
+            var c = characters.charAt(i);
+            if (c >= 128) {
+                throw new IllegalArgumentException("Non-ASCII character in class: " + c);
+            } else if (c < 64) {
+                low |= 1L << c;
+            } else {
+                high |= 1L << (c - 64);
+            }
+        }
+        return new CharClass(low, high, false);
+    }
+
+    /**
+     * Returns a class matching the (ASCII) characters from start to end,
+     * inclusive, equivalent to the regex {@code [start-end]}.
+     */
+    static CharClass range(char start, char end) {
+        var builder = new StringBuilder();
+        for (char c = start; c <= end; c++) {
+            builder.append(c);
+        }
+        return anyOf(builder.toString());
+    }
+
+    CharClass or(CharClass other) {
+        return new CharClass(low | other.low, high | other.high, nonAscii || other.nonAscii);
+    }
+
+    CharClass negate() {
+        return new CharClass(~low, ~high, !nonAscii);
+    }
+
+    boolean matches(char c) {
+        if (c < 64) {
+            return (low & (1L << c)) != 0;
+        } else if (c < 128) {
+            return (high & (1L << (c - 64))) != 0;
+        } else {
+            return nonAscii;
+        }
+    }
+
+}
@@ -0,0 +1,233 @@
+package plc.project.lexer;
+
+import com.google.common.base.Preconditions;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * A table-driven alternative to {@link Lexer}, which remains the reference
+ * implementation. The token grammar is compiled once into a DFA whose
+ * transition table is indexed by (state, character class), so each character
+ * is inspected once instead of being re-peeked by each lex method.
+ *
+ * <p>Tokens are the longest match, backtracking to the last accepting state
+ * (e.g. 1.field is 1 . field). This is the same as the lookahead in the
+ * reference lexer, which is verified by a differential test. If no accepting
+ * state is reached, a {@link LexException} is thrown at the index where the
+ * DFA got stuck, which is also the index the reference lexer reports.
+ */
+public final class DfaLexer {
+
+    private static final Token.Type[] TYPES = Token.Type.values();
+    private static final int SKIP = TYPES.length; //whitespace and comments
+    private static final int NONE = -1;
+    private static final int STUCK = 0;
+
+    private static final int CLASSES;
+    private static final int NON_ASCII_CLASS;
+    private static final byte[] ASCII_CLASSES = new byte[128];
+    private static final int[] TRANSITIONS;
+    private static final int[] ACCEPTS;
+
+    static {
+        //Token grammar, see the corresponding lex methods in Lexer.
+        var dfa = new Builder();
+        var start = dfa.state(NONE);
+        var operator = dfa.state(Token.Type.OPERATOR.ordinal());
+        dfa.on(start, Lexer.OPERATOR, operator);
+
+        var whitespace = dfa.state(SKIP);
+        dfa.on(start, Lexer.WHITESPACE, whitespace);
+        dfa.on(whitespace, Lexer.WHITESPACE, whitespace);
+
+        var slash = dfa.state(Token.Type.OPERATOR.ordinal());
+        var comment = dfa.state(SKIP);
+        dfa.on(start, Lexer.SLASH, slash);
+        dfa.on(slash, Lexer.SLASH, comment);
+        dfa.on(comment, Lexer.NOT_NEWLINE, comment);
+
+        var identifier = dfa.state(Token.Type.IDENTIFIER.ordinal());
+        dfa.on(start, Lexer.IDENTIFIER_START, identifier);
+        dfa.on(identifier, Lexer.IDENTIFIER_PART, identifier);
+
+        var sign = dfa.state(Token.Type.OPERATOR.ordinal());
+        var integer = dfa.state(Token.Type.INTEGER.ordinal());
+        var dot = dfa.state(NONE);
+        var decimal = dfa.state(Token.Type.DECIMAL.ordinal());
+        dfa.on(start, Lexer.SIGN, sign);
+        dfa.on(start, Lexer.DIGIT, integer);
+        dfa.on(sign, Lexer.DIGIT, integer);
+        dfa.on(integer, Lexer.DIGIT, integer);
+        dfa.on(integer, Lexer.DOT, dot);
+        dfa.on(dot, Lexer.DIGIT, decimal);
+        dfa.on(decimal, Lexer.DIGIT, decimal);
+        dfa.exponent(integer, Token.Type.INTEGER);
+        dfa.exponent(decimal, Token.Type.DECIMAL);
+
+        var characterOpen = dfa.state(NONE);
+        var characterEscape = dfa.state(NONE);
+        var characterBody = dfa.state(NONE);
+        var character = dfa.state(Token.Type.CHARACTER.ordinal());
+        dfa.on(start, Lexer.SINGLE_QUOTE, characterOpen);
+        dfa.on(characterOpen, Lexer.CHARACTER_BODY, characterBody);
+        dfa.on(characterOpen, Lexer.BACKSLASH, characterEscape);
+        dfa.on(characterEscape, Lexer.ESCAPE, characterBody);
+        dfa.on(characterBody, Lexer.SINGLE_QUOTE, character);
+
+        var stringBody = dfa.state(NONE);
+        var stringEscape = dfa.state(NONE);
+        var string = dfa.state(Token.Type.STRING.ordinal());
+        dfa.on(start, Lexer.DOUBLE_QUOTE, stringBody);
+        dfa.on(stringBody, Lexer.STRING_BODY, stringBody);
+        dfa.on(stringBody, Lexer.BACKSLASH, stringEscape);
+        dfa.on(stringEscape, Lexer.ESCAPE, stringBody);
+        dfa.on(stringBody, Lexer.DOUBLE_QUOTE, string);
+
+        var comparison = dfa.state(Token.Type.OPERATOR.ordinal());
+        var comparisonEquals = dfa.state(Token.Type.OPERATOR.ordinal());
+        dfa.on(start, Lexer.COMPARISON, comparison);
+        dfa.on(comparison, Lexer.EQUALS, comparisonEquals);
+
+        Preconditions.checkState(start == 1);
+        CLASSES = dfa.partition();
+        NON_ASCII_CLASS = dfa.classOf((char) 128);
+        for (char c = 0; c < 128; c++) {
+            ASCII_CLASSES[c] = (byte) dfa.classOf(c);
+        }
+        TRANSITIONS = dfa.compile();
+        ACCEPTS = dfa.accepts.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private final CharSequence input;
+    private final LineTable lines = new LineTable();
+
+    public DfaLexer(String input) {
+        this.input = input;
+    }
+
+    /**
+     * Returns the lines of the input lexed so far, see {@link Lexer#lines()}.
+     */
+    public LineTable lines() {
+        return lines;
+    }
+
+    public List<Token> lex() throws LexException {
+        return lexBuffer().toList();
+    }
+
+    public TokenBuffer lexBuffer() throws LexException {
+        var tokens = new TokenBuffer(input, new SymbolTable(), lines);
+        var length = input.length();
+        var index = 0;
+        while (index < length) {
+            var state = 1;
+            var accept = NONE;
+            var end = index;
+            var i = index;
+            while (i < length) {
+                var c = input.charAt(i);
+                state = TRANSITIONS[state * CLASSES + (c < 128 ? ASCII_CLASSES[c] : NON_ASCII_CLASS)];
+                if (state == STUCK) {
+                    break;
+                }
+                i++;
+                if (c == '\n') {
+                    lines.add(i); //only in whitespace, which is never backtracked
+                }
+                if (ACCEPTS[state] != NONE) {
+                    accept = ACCEPTS[state];
+                    end = i;
+                }
+            }
+            if (accept == NONE) {
+                throw new LexException(i < length ? "Unexpected character" : "Unexpected end of input", i);
+            } else if (accept != SKIP) {
+                tokens.add(TYPES[accept], index, end - index);
+            }
+            index = end;
+        }
+        return tokens;
+    }
+
+    /**
+     * Builds the DFA from transitions on {@link CharClass}es. Later
+     * transitions from the same state take priority, which is used for the
+     * operator transition acting as the default from the start state.
+     * Characters are then partitioned into classes by which CharClasses they
+     * belong to, forming the columns of the transition table.
+     */
+    private static final class Builder {
+
+        private final List<Integer> accepts = new ArrayList<>(List.of(NONE)); //state 0 is STUCK
+        private final List<Transition> transitions = new ArrayList<>();
+        private final List<CharClass> charClasses = new ArrayList<>();
+        private final HashMap<Long, Integer> signatures = new HashMap<>();
+
+        private record Transition(int from, CharClass on, int to) {}
+
+        int state(int accept) {
+            accepts.add(accept);
+            return accepts.size() - 1;
+        }
+
+        void on(int from, CharClass on, int to) {
+            transitions.add(new Transition(from, on, to));
+            if (!charClasses.contains(on)) {
+                charClasses.add(on);
+            }
+        }
+
+        /**
+         * Adds ('e' [+-]? [0-9]+)? to a number state.
+         */
+        void exponent(int from, Token.Type type) {
+            var exponent = state(NONE);
+            var sign = state(NONE);
+            var digits = state(type.ordinal());
+            on(from, Lexer.EXPONENT, exponent);
+            on(exponent, Lexer.SIGN, sign);
+            on(exponent, Lexer.DIGIT, digits);
+            on(sign, Lexer.DIGIT, digits);
+            on(digits, Lexer.DIGIT, digits);
+        }
+
+        private long signature(char c) {
+            Preconditions.checkState(charClasses.size() <= 64);
+            var signature = 0L;
+            for (int i = 0; i < charClasses.size(); i++) {
+                if (charClasses.get(i).matches(c)) {
+                    signature |= 1L << i;
+                }
+            }
+            return signature;
+        }
+
+        int partition() {
+            for (char c = 0; c <= 128; c++) {
+                signatures.putIfAbsent(signature(c), signatures.size());
+            }
+            return signatures.size();
+        }
+
+        int classOf(char c) {
+            return signatures.get(signature(c));
+        }
+
+        int[] compile() {
+            var table = new int[accepts.size() * CLASSES];
+            for (var transition : transitions) {
+                for (char c = 0; c <= 128; c++) {
+                    if (transition.on.matches(c)) {
+                        table[transition.from * CLASSES + classOf(c)] = transition.to;
+                    }
+                }
+            }
+            return table;
+        }
+
+    }
+
+}
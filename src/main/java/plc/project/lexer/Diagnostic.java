@@ -0,0 +1,10 @@
+package plc.project.lexer;
+
+/**
+ * An error reported by {@link Lexer#lexRecovering()}, with the same message
+ * and index as the {@link LexException} the other lex methods would throw.
+ */
+public record Diagnostic(
+    String message,
+    int index
+) {}
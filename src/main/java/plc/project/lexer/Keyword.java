@@ -0,0 +1,24 @@
+package plc.project.lexer;
+
+/**
+ * Keywords of the grammar, which are lexed as identifiers. Each keyword is
+ * pre-registered in every {@link SymbolTable} with its ordinal as the symbol
+ * id, so checking for a keyword is an int comparison.
+ */
+public enum Keyword {
+    LET,
+    DEF,
+    DO,
+    END,
+    IF,
+    ELSE,
+    FOR,
+    IN,
+    RETURN,
+    OBJECT,
+    AND,
+    OR,
+    NIL,
+    TRUE,
+    FALSE
+}
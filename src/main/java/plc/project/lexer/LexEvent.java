@@ -0,0 +1,77 @@
+package plc.project.lexer;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * A JFR event for one lexer call, see {@link LexerMetrics#jfr()}. The event
+ * is created after lexing, so its own duration is zero and the time spent
+ * lexing is {@link #lexTime} instead.
+ */
+@Name("plc.project.Lex")
+@Label("Lex")
+@Category("PLC")
+@Description("A call to the lexer, with the tokens lexed per type.")
+@StackTrace(false)
+public final class LexEvent extends Event {
+
+    @Label("Scanned")
+    @Description("Characters scanned, which are bytes for byte input.")
+    long scanned;
+
+    @Label("Lex Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long lexTime;
+
+    @Label("Allocated")
+    @Description("Bytes allocated by the lexing thread, or -1 if not supported.")
+    @DataAmount
+    long allocated;
+
+    @Label("Tokens")
+    int tokens;
+
+    @Label("Identifiers")
+    int identifiers;
+
+    @Label("Integers")
+    int integers;
+
+    @Label("Decimals")
+    int decimals;
+
+    @Label("Characters")
+    int characters;
+
+    @Label("Strings")
+    int strings;
+
+    @Label("Operators")
+    int operators;
+
+    static void emit(TokenBuffer tokens, int scanned, long nanos, long allocatedBytes) {
+        var event = new LexEvent();
+        if (!event.isEnabled()) {
+            return;
+        }
+        var counts = tokens.counts();
+        event.scanned = scanned;
+        event.lexTime = nanos;
+        event.allocated = allocatedBytes;
+        event.tokens = tokens.size();
+        event.identifiers = counts[Token.Type.IDENTIFIER.ordinal()];
+        event.integers = counts[Token.Type.INTEGER.ordinal()];
+        event.decimals = counts[Token.Type.DECIMAL.ordinal()];
+        event.characters = counts[Token.Type.CHARACTER.ordinal()];
+        event.strings = counts[Token.Type.STRING.ordinal()];
+        event.operators = counts[Token.Type.OPERATOR.ordinal()];
+        event.commit();
+    }
+
+}
@@ -0,0 +1,12 @@
+package plc.project.lexer;
+
+import java.util.List;
+
+/**
+ * The tokens and diagnostics from {@link Lexer#lexRecovering()}, where each
+ * diagnostic (in order) corresponds to an error token in the buffer.
+ */
+public record LexResult(
+    TokenBuffer tokens,
+    List<Diagnostic> diagnostics
+) {}
@@ -0,0 +1,48 @@
+package plc.project.lexer;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * A measurement of one lexer call, started before lexing and finished with
+ * the tokens, see {@link Lexer#setMetrics}. This class is only initialized
+ * once metrics are enabled, so the ThreadMXBean isn't loaded otherwise.
+ */
+final class LexSample {
+
+    private static final com.sun.management.ThreadMXBean THREADS = threads();
+
+    private final LexerMetrics metrics;
+    private final int start;
+    private final long allocated;
+    private final long nanos;
+
+    LexSample(LexerMetrics metrics, int start) {
+        this.metrics = metrics;
+        this.start = start;
+        this.allocated = allocatedBytes();
+        this.nanos = System.nanoTime(); //last, to exclude reading the allocations
+    }
+
+    /**
+     * Records the tokens lexed since the sample was started, with the input
+     * scanned up to the end offset.
+     */
+    void finish(TokenBuffer tokens, int end) {
+        var nanos = System.nanoTime() - this.nanos;
+        var allocated = this.allocated == -1 ? -1 : allocatedBytes() - this.allocated;
+        metrics.record(tokens, end - start, nanos, allocated);
+    }
+
+    private static long allocatedBytes() {
+        return THREADS != null ? THREADS.getCurrentThreadAllocatedBytes() : -1;
+    }
+
+    private static com.sun.management.ThreadMXBean threads() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean threads
+                && threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled()) {
+            return threads;
+        }
+        return null;
+    }
+
+}
@@ -2,8 +2,23 @@ package plc.project.lexer;
 
 import com.google.common.base.Preconditions;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 /**
  * The lexer works through a combination of {@link #lex()}, which repeatedly
@@ -11,66 +26,562 @@ import java.util.List;
  * {@link #lexToken()}, which determines the type of the next token and
  * delegates to the corresponding lex method.
  *
+ * <p>Tokens are recorded as offsets into the input in a {@link TokenBuffer};
+ * {@link #lexBuffer()} returns this directly while {@link #lex()} materializes
+ * the literals as a {@code List<Token>}.
+ *
+ * <p>Input can also be streamed from a {@link Reader} or channel, in which case
+ * only a fixed-size window of characters is kept in memory and tokens are
+ * pulled one at a time with {@link #nextToken()}. UTF-8 bytes can be lexed
+ * directly from a byte[]/{@link ByteBuffer} (or a memory-mapped file with
+ * {@link #fromPath(Path)}) without decoding them into a String first.
+ *
+ * <p>Line starts are recorded in a {@link LineTable} while skipping
+ * whitespace, which maps token offsets and {@link LexException} indices to
+ * lines and columns (see {@link #lines()}).
+ *
+ * <p>For reporting every error in one pass, {@link #lexRecovering()} returns
+ * diagnostics and error tokens instead of throwing a {@link LexException}.
+ *
+ * <p>Throughput and allocations can be measured with {@link LexerMetrics},
+ * see {@link #setMetrics}.
+ *
  * <p>Additionally, {@link CharStream} manages the lexer state and contains
  * {@link CharStream#peek} and {@link CharStream#match}. These are helpful
  * utilities for working with character state and building tokens.
  */
 public final class Lexer {
 
+    static final CharClass WHITESPACE = CharClass.anyOf(" \b\n\r\t");
+    static final CharClass SLASH = CharClass.anyOf("/");
+    static final CharClass NEWLINE = CharClass.anyOf("\n");
+    static final CharClass NOT_NEWLINE = NEWLINE.negate();
+    static final CharClass LETTER = CharClass.range('A', 'Z').or(CharClass.range('a', 'z'));
+    static final CharClass DIGIT = CharClass.range('0', '9');
+    static final CharClass IDENTIFIER_START = LETTER.or(CharClass.anyOf("_"));
+    static final CharClass IDENTIFIER_PART = IDENTIFIER_START.or(DIGIT).or(CharClass.anyOf("-"));
+    static final CharClass SIGN = CharClass.anyOf("+-");
+    static final CharClass DOT = CharClass.anyOf(".");
+    static final CharClass EXPONENT = CharClass.anyOf("eE");
+    static final CharClass SINGLE_QUOTE = CharClass.anyOf("'");
+    static final CharClass DOUBLE_QUOTE = CharClass.anyOf("\"");
+    static final CharClass BACKSLASH = CharClass.anyOf("\\");
+    static final CharClass ESCAPE = CharClass.anyOf("bnrt'\"\\");
+    static final CharClass CHARACTER_BODY = CharClass.anyOf("'\n\r\\").negate();
+    static final CharClass STRING_BODY = CharClass.anyOf("\"\\\n\r").negate();
+    static final CharClass COMPARISON = CharClass.anyOf("<>!=");
+    static final CharClass EQUALS = CharClass.anyOf("=");
+    static final CharClass OPERATOR = IDENTIFIER_START.or(DIGIT).or(CharClass.anyOf("'\" \b\n\r\t")).negate();
+
+    /**
+     * Whether whitespace and comments in byte input (see {@link #fromPath})
+     * are skipped with the Vector API, see {@link VectorScanner}. This is on
+     * if the jdk.incubator.vector module is available (with
+     * {@code --add-modules jdk.incubator.vector}), unless disabled with
+     * {@code -Dplc.lexer.vector=false}.
+     */
+    static final boolean VECTORIZED = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()
+        && Boolean.parseBoolean(System.getProperty("plc.lexer.vector", "true"));
+
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    private static volatile LexerMetrics metrics; //null if disabled, see setMetrics
+
+    /**
+     * The maximum number of characters after the end of a token that can
+     * affect how it is lexed (e.g. the "e+1" check after an integer "1").
+     */
+    private static final int LOOKAHEAD = 3;
+
     private final CharStream chars;
+    private final LineTable lines = new LineTable();
+    private final StringBuilder value = new StringBuilder(); //decoded STRING/CHARACTER value, reused
+
+    //The last error recorded by error(), see lexRecovering().
+    private Token.Type errorType;
+    private String errorMessage;
+    private int errorIndex;
 
     public Lexer(String input) {
         chars = new CharStream(input);
     }
 
+    private Lexer(CharSequence input) {
+        chars = new CharStream(input);
+    }
+
+    private Lexer(CharSequence input, int start, int end) {
+        chars = new CharStream(input, start, end);
+    }
+
+    /**
+     * Streams input from the reader, which must be lexed with
+     * {@link #nextToken()}. Characters are only retained for the current
+     * token (see CharStream), but {@link #lines()} keeps the start of every
+     * line so positions of earlier tokens can still be formatted, so memory
+     * is O(lines) rather than constant (4 bytes per line).
+     */
+    public Lexer(Reader reader) {
+        chars = new CharStream(reader);
+    }
+
+    /**
+     * Streams UTF-8 input from the channel, see {@link #Lexer(Reader)}.
+     */
+    public Lexer(ReadableByteChannel channel) {
+        this(Channels.newReader(channel, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Lexes UTF-8 bytes directly, without decoding them into a String first.
+     * Token offsets in the {@link TokenBuffer} are byte offsets, multi-byte
+     * sequences are only decoded for the values of string and character
+     * literals, and other literals are only decoded if they are requested.
+     */
+    public Lexer(byte[] input) {
+        this(ByteBuffer.wrap(input));
+    }
+
+    /**
+     * Lexes the UTF-8 bytes from the buffer's position to its limit, see
+     * {@link #Lexer(byte[])}. The buffer is not modified, but must not be
+     * changed while the lexer or its tokens are in use.
+     */
+    public Lexer(ByteBuffer input) {
+        this(new ByteSequence(input));
+    }
+
+    /**
+     * Memory-maps the (UTF-8) file and lexes its bytes directly, see
+     * {@link #Lexer(byte[])}.
+     */
+    public static Lexer fromPath(Path path) throws IOException {
+        try (var channel = FileChannel.open(path)) {
+            var size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("File is too large to be mapped: " + path);
+            }
+            return new Lexer(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+        }
+    }
+
+    /**
+     * Enables metrics for all lexers, or disables them with null (the
+     * default). When disabled, the only cost is a null check per call; the
+     * counters are only computed from the TokenBuffer after lexing, so there
+     * is no cost per token either way.
+     */
+    public static void setMetrics(LexerMetrics metrics) {
+        Lexer.metrics = metrics;
+    }
+
+    /**
+     * Starts measuring a lexer call, or returns null if metrics are disabled.
+     */
+    private LexSample sample() {
+        var metrics = Lexer.metrics;
+        return metrics != null ? new LexSample(metrics, chars.index) : null;
+    }
+
+    /**
+     * Returns the lines of the input lexed so far, which after a
+     * {@link LexException} includes the line containing its index.
+     */
+    public LineTable lines() {
+        return lines;
+    }
+
     //Whitespace: ("[ \b\n\r\t]")
-//comments: chars.peek("/", "/")
+//comments: chars.peek(SLASH, SLASH)
     public List<Token> lex() throws LexException {
-        var tokens = new ArrayList<Token>();
-        while (chars.has(0)) {
+        return lexBuffer().toList();
+    }
+
+    public TokenBuffer lexBuffer() throws LexException {
+        Preconditions.checkState(chars.reader == null, "Streaming input must be lexed with nextToken().");
+        var sample = sample();
+        var tokens = lexTokens();
+        if (sample != null) {
+            sample.finish(tokens, chars.index);
+        }
+        return tokens;
+    }
+
+    private TokenBuffer lexTokens() throws LexException {
+        var tokens = new TokenBuffer(chars.input, new SymbolTable(), lines);
+        while (skipWhitespaceAndComments()) {
+            var type = lexToken();
+            if (type == null) {
+                throw exception();
+            }
+            addToken(tokens, type);
+        }
+        return tokens;
+    }
+
+    /**
+     * Lexes the entire input without stopping at errors, returning all
+     * diagnostics instead of throwing the first one as a {@link LexException}.
+     *
+     * <p>Each error is recorded as an error token (see
+     * {@link TokenBuffer#isError}) with the type of the token being lexed,
+     * which extends to the closing quote or the end of the line, whichever
+     * comes first. Lexing resumes from there as it is always between tokens
+     * after a newline (see {@link #lexParallel}); the closing quote is only a
+     * best guess to avoid cascading errors for the rest of the line.
+     *
+     * <p>The lex methods report errors through {@link #error} rather than
+     * exceptions, so no exceptions (or stack traces) are created here.
+     */
+    public LexResult lexRecovering() {
+        Preconditions.checkState(chars.reader == null, "Streaming input must be lexed with nextToken().");
+        var sample = sample();
+        var tokens = new TokenBuffer(chars.input, new SymbolTable(), lines);
+        var diagnostics = new ArrayList<Diagnostic>();
+        while (skipWhitespaceAndComments()) {
+            var type = lexToken();
+            if (type == null) {
+                diagnostics.add(new Diagnostic(errorMessage, errorIndex));
+                recover(errorType);
+                var start = chars.emit();
+                tokens.addError(errorType, start, chars.index - start);
+            } else {
+                addToken(tokens, type);
+            }
+        }
+        if (sample != null) {
+            sample.finish(tokens, chars.index);
+        }
+        return new LexResult(tokens, diagnostics);
+    }
+
+    /**
+     * Skips the rest of a token of the given type that failed to lex: to
+     * after the next (unescaped) closing quote for CHARACTER/STRING tokens,
+     * and otherwise to the next whitespace. Either way, this stops before a
+     * newline or the end of input.
+     *
+     * <p>Only quoted tokens currently fail, since numbers and operators end
+     * wherever their lookahead does (e.g. 1. is lexed as 1 .).
+     */
+    private void recover(Token.Type type) {
+        var delimiter = switch (type) {
+            case CHARACTER -> SINGLE_QUOTE;
+            case STRING -> DOUBLE_QUOTE;
+            default -> null;
+        };
+        while (chars.has(0) && !chars.peek(NEWLINE)) {
+            if (delimiter == null) {
+                if (chars.peek(WHITESPACE)) {
+                    return;
+                }
+                chars.match(NOT_NEWLINE);
+            } else if (chars.match(delimiter)) {
+                return;
+            } else if (!chars.match(BACKSLASH, NOT_NEWLINE)) {
+                chars.match(NOT_NEWLINE);
+            }
+        }
+    }
+
+    /**
+     * Records an error at the current index while lexing a token of the
+     * given type, returning null for the lex method to return as its type.
+     */
+    private Token.Type error(Token.Type type, String message) {
+        errorType = type;
+        errorMessage = message;
+        errorIndex = chars.index;
+        return null;
+    }
+
+    private LexException exception() {
+        return new LexException(errorMessage, errorIndex);
+    }
+
+    /**
+     * Adds the token that was just lexed, with its decoded value for
+     * STRING/CHARACTER tokens.
+     */
+    private void addToken(TokenBuffer tokens, Token.Type type) {
+        var start = chars.emit();
+        if (type == Token.Type.STRING || type == Token.Type.CHARACTER) {
+            tokens.add(type, start, chars.index - start, value());
+        } else {
+            tokens.add(type, start, chars.index - start);
+        }
+    }
+
+    /**
+     * Returns the decoded value of the last STRING/CHARACTER token.
+     */
+    private String value() {
+        return value.toString();
+    }
 
-            if (chars.peek("[ \b\n\r\t]")) {
+    /**
+     * Appends the literal body character that was just matched to the value.
+     * In byte input, this is the lead byte of a multi-byte UTF-8 sequence if
+     * it isn't ASCII, which is decoded after matching the continuation bytes.
+     * Returns false if the sequence is invalid (including overlong encodings
+     * and surrogates).
+     */
+    private boolean appendBody() {
+        var c = chars.charAt(chars.index - 1);
+        if (c < 0x80 || !chars.bytes) {
+            value.append(c);
+            return true;
+        }
+        int continuations, codePoint, min;
+        if (c >= 0xC2 && c <= 0xDF) {
+            continuations = 1;
+            codePoint = c & 0x1F;
+            min = 0x80;
+        } else if (c >= 0xE0 && c <= 0xEF) {
+            continuations = 2;
+            codePoint = c & 0x0F;
+            min = 0x800;
+        } else if (c >= 0xF0 && c <= 0xF4) {
+            continuations = 3;
+            codePoint = c & 0x07;
+            min = 0x10000;
+        } else {
+            return false;
+        }
+        for (int i = 0; i < continuations; i++) {
+            if (!matchContinuation()) {
+                return false;
+            }
+            codePoint = (codePoint << 6) | (chars.charAt(chars.index - 1) & 0x3F);
+        }
+        if (codePoint < min || codePoint > Character.MAX_CODE_POINT
+                || (codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE)) {
+            return false;
+        }
+        value.appendCodePoint(codePoint);
+        return true;
+    }
+
+    /**
+     * Matches a UTF-8 continuation byte (10xxxxxx) in byte input.
+     */
+    private boolean matchContinuation() {
+        if (chars.has(0) && (chars.charAt(chars.index) & 0xC0) == 0x80) {
+            chars.advance(chars.index + 1);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Lexes the input in parallel on the pool, returning the same tokens (or
+     * throwing the same exception) as {@link #lexBuffer()}.
+     *
+     * <p>The input is split into chunks of roughly {@link #CHUNK_SIZE} at
+     * newlines, which are always safe boundaries: no token can contain a raw
+     * newline (strings and characters reject them, and comments end before
+     * them), so the lexer is always between tokens after one. Since the
+     * chunks use absolute indices, exceptions are identical as well; if
+     * multiple chunks fail, the first one is reported as that is where the
+     * sequential lexer would have stopped.
+     */
+    public TokenBuffer lexParallel(ForkJoinPool pool) throws LexException {
+        return lexParallel(pool, CHUNK_SIZE);
+    }
+
+    TokenBuffer lexParallel(ForkJoinPool pool, int chunkSize) throws LexException {
+        Preconditions.checkState(chars.reader == null, "Streaming input must be lexed with nextToken().");
+        var sample = sample();
+        var tokens = lexChunks(pool, chunkSize);
+        if (sample != null) {
+            sample.finish(tokens, chars.limit);
+        }
+        return tokens;
+    }
+
+    private TokenBuffer lexChunks(ForkJoinPool pool, int chunkSize) throws LexException {
+        var boundaries = findChunkBoundaries(chunkSize);
+        if (boundaries.size() <= 2) {
+            return lexTokens();
+        }
+        var lexers = new ArrayList<Lexer>();
+        var tasks = new ArrayList<ForkJoinTask<TokenBuffer>>();
+        var exceptions = new LexException[boundaries.size() - 1];
+        for (int i = 0; i < boundaries.size() - 1; i++) {
+            var chunk = new Lexer(chars.input, boundaries.get(i), boundaries.get(i + 1));
+            lexers.add(chunk);
+            var n = i;
+            tasks.add(pool.submit(() -> {
+                try {
+                    return chunk.lexTokens(); //measured as part of this call
+                } catch (LexException e) {
+                    exceptions[n] = e;
+                    return null;
+                }
+            }));
+        }
+        var tokens = new TokenBuffer(chars.input, new SymbolTable(), lines);
+        for (int i = 0; i < tasks.size(); i++) {
+            var chunk = tasks.get(i).join();
+            lines.addAll(lexers.get(i).lines);
+            if (exceptions[i] != null) {
+                throw exceptions[i];
+            }
+            tokens.addAll(chunk);
+        }
+        return tokens;
+    }
+
+    /**
+     * Pre-scan for the parallel lexer, returning the offsets of the first
+     * newline after every chunkSize characters (plus the start and end).
+     */
+    private List<Integer> findChunkBoundaries(int chunkSize) {
+        var boundaries = new ArrayList<Integer>();
+        boundaries.add(chars.index);
+        var next = chars.index + chunkSize;
+        while (next < chars.limit) {
+            if (chars.input.charAt(next) == '\n') {
+                if (next + 1 < chars.limit) {
+                    boundaries.add(next + 1);
+                }
+                next += chunkSize;
+            } else {
+                next++;
+            }
+        }
+        boundaries.add(chars.limit);
+        return boundaries;
+    }
+
+    /**
+     * Re-lexes the previous tokens after an edit replacing removed characters
+     * at offset with the inserted text, for editors lexing on every change.
+     *
+     * <p>Lexing restarts after the last token that ends at least
+     * {@link #LOOKAHEAD} characters before the edit, since the lexer is always
+     * in its initial state between tokens. It stops once a new token starts
+     * after the inserted text at the same (shifted) position as a previous
+     * token, as everything from there on is identical text lexed from the
+     * same state. Only tokens in between are re-lexed; the rest are copied.
+     *
+     * <p>The previous tokens must be from a String source, as offsets into
+     * memory-mapped input are byte offsets.
+     */
+    public static TokenDelta relex(TokenBuffer previous, int offset, int removed, String inserted) throws LexException {
+        var source = previous.source();
+        Preconditions.checkArgument(!(source instanceof ByteSequence), "Byte sources can't be edited.");
+        Preconditions.checkPositionIndexes(offset, offset + removed, source.length());
+        var edited = new StringBuilder(source.length() - removed + inserted.length())
+            .append(source, 0, offset)
+            .append(inserted)
+            .append(source, offset + removed, source.length())
+            .toString();
+        var shift = inserted.length() - removed;
+        //First damaged token, and the offset after the last undamaged one.
+        var start = 0;
+        while (start < previous.size() && previous.start(start) + previous.length(start) + LOOKAHEAD <= offset) {
+            start++;
+        }
+        var restart = start == 0 ? 0 : previous.start(start - 1) + previous.length(start - 1);
+        var tokens = new TokenBuffer(edited, previous.symbols(), previous.lines().edit(offset, removed, inserted));
+        tokens.addRange(previous, 0, start, 0);
+        var lexer = new Lexer(edited, restart, edited.length());
+        var resync = start;
+        while (lexer.skipWhitespaceAndComments()) {
+            var index = lexer.chars.index;
+            if (index >= offset + inserted.length()) {
+                while (resync < previous.size() && previous.start(resync) + shift < index) {
+                    resync++;
+                }
+                if (resync < previous.size() && previous.start(resync) + shift == index) {
+                    var inserts = tokens.size() - start;
+                    tokens.addRange(previous, resync, previous.size(), shift);
+                    return new TokenDelta(tokens, start, resync - start, inserts);
+                }
+            }
+            var type = lexer.lexToken();
+            if (type == null) {
+                throw lexer.exception();
+            }
+            lexer.addToken(tokens, type);
+        }
+        return new TokenDelta(tokens, start, previous.size() - start, tokens.size() - start);
+    }
+
+    /**
+     * Lexes and returns the next token, or empty at the end of input. Unlike
+     * {@link #lexBuffer()}, this also works on streaming input since the
+     * literal is copied out of the window before it is discarded.
+     */
+    public Optional<Token> nextToken() throws LexException {
+        if (!skipWhitespaceAndComments()) {
+            return Optional.empty();
+        }
+        var type = lexToken();
+        if (type == null) {
+            throw exception();
+        }
+        var start = chars.emit();
+        return Optional.of(new Token(type, chars.literal(start, chars.index)));
+    }
+
+    /**
+     * Skips whitespace/comments, returning true if a token follows.
+     */
+    private boolean skipWhitespaceAndComments() {
+        while (chars.has(0)) {
+            if (chars.peek(WHITESPACE)) {
                 lexWhitespace();
-            } else if (chars.peek("/", "/")) {
+            } else if (chars.peek(SLASH, SLASH)) {
                 lexComment();
             } else {
-               tokens.add(lexToken());
+                return true;
             }
-            //tokens.add(lexToken());
         }
-        return tokens;
+        return false;
     }
 
     private void lexWhitespace() {
         //throw new UnsupportedOperationException("TODO");
-while(chars.has(0) && chars.peek("[ \b\n\r\t]")) {  // chars.has(0) will stop it from going past stirng
-    chars.match("[ \b\n\r\t]");
+        if (chars.segment != null) {
+            chars.advance(VectorScanner.skipWhitespace(chars.segment, chars.index, chars.limit, lines));
+        }
+while(chars.has(0) && chars.peek(WHITESPACE)) {  // chars.has(0) will stop it from going past stirng
+    if (chars.match(NEWLINE)) {
+        lines.add(chars.index); //the only place newlines are consumed
+    } else {
+        chars.match(WHITESPACE);
+    }
     //chars.index++; match should now do this automatically
 }
 chars.emit();
     }
 
-    private void lexComment() throws LexException {
+    private void lexComment() {
         //throw new UnsupportedOperationException("TODO");
-        if (!chars.match("/", "/")) {
-            throw new LexException("Invalid comment start", chars.index);
+        Preconditions.checkState(chars.match(SLASH, SLASH), "Invalid comment start");
+        if (chars.segment != null) {
+            chars.advance(VectorScanner.skipComment(chars.segment, chars.index, chars.limit));
         }
 
-        while (chars.has(0) && !chars.peek("\n")) {
-            chars.match(".");
-        }
+        while (chars.match(NOT_NEWLINE)) {}
         chars.emit();
     }
 
-    private Token lexToken() throws LexException {
+    /**
+     * Returns the type of the lexed token, or null if an error was recorded
+     * with {@link #error}.
+     */
+    private Token.Type lexToken() {
 
-        if (chars.peek("[A-Za-z_]")) {  //sends it to correct function
+        if (chars.peek(IDENTIFIER_START)) {  //sends it to correct function
             return lexIdentifier();
-        } else if (chars.peek("[+-]", "[0-9]") || chars.peek("[0-9]")) {
+        } else if (chars.peek(SIGN, DIGIT) || chars.peek(DIGIT)) {
             return lexNumber();    //number ::= [+-]? [0-9]+ ('.' [0-9]+)? ('e' [+-]? [0-9]+)?
-        } else if (chars.peek("'")) {
+        } else if (chars.peek(SINGLE_QUOTE)) {
             return lexCharacter();
-        } else if (chars.peek("\"")) {
+        } else if (chars.peek(DOUBLE_QUOTE)) {
             return lexString();
         } else {
             return lexOperator();
@@ -78,131 +589,162 @@ chars.emit();
         //throw new UnsupportedOperationException("TODO: lexToken"); //TODO
     }
 
-    private Token lexIdentifier() {
+    private Token.Type lexIdentifier() {
 //identifier ::= [A-Za-z_] [A-Za-z0-9_-]*
-      Preconditions.checkState(chars.match("[A-Za-z_]"));
-      while (chars.match("[A-Za-z0-9_-]*")) {}
+      Preconditions.checkState(chars.match(IDENTIFIER_START));
+      while (chars.match(IDENTIFIER_PART)) {}
 
-      return new Token(Token.Type.IDENTIFIER, chars.emit());
+      return Token.Type.IDENTIFIER;
 
         //throw new UnsupportedOperationException("TODO: identiier"); //TODO
     }
 
-    private Token lexNumber() throws LexException {  //note: Preconditions cant check for the exceptions so use if statements and replace them
+    private Token.Type lexNumber() {  //note: Preconditions cant check for the exceptions so use if statements and replace them
         //number ::= [+-]? [0-9]+ ('.' [0-9]+)? ('e' [+-]? [0-9]+)?
 //optional sign consume
-        if (chars.match("[+-]")) {} //consumes
-
-        //Preconditions.checkState(chars.match("[0-9]"));
-        if (!chars.match("[0-9]")) {
-            throw new LexException("missing decimal ", chars.index);
-        }
-
-        while (chars.match("[0-9]")) {}
-
-        if (chars.match("\\.")) {//dec check
-            //check for num after dec
-            if (!chars.match("[0-9]")) {
-                throw new LexException("missing decimal ", chars.index);
+        if (chars.match(SIGN)) {} //consumes
+
+        //lexToken only calls this before a digit, and the lookahead for the
+        //decimal and exponent below also requires one, so this can't fail.
+        Preconditions.checkState(chars.match(DIGIT));
+        while (chars.match(DIGIT)) {}
+
+        if (chars.peek(DOT, DIGIT)) {//dec check, only if digits follow (1.field is 1 . field)
+            chars.match(DOT);
+            while (chars.match(DIGIT)) {}
+            if (peekExponent()) { //can it be after dec?
+                chars.match(EXPONENT);
+                chars.match(SIGN);
+                while (chars.match(DIGIT)) {}
             }
-            while (chars.match("[0-9]")) {}
-            if (chars.match("[eE]")) { //can it be after dec?
-                chars.match("[+-]");
-                if (!chars.match("[0-9]")) {//if theres nothing after digits
-                    throw new LexException("Missing exponent", chars.index);
-                }
-                while (chars.match("[0-9]")) {}
-            }
-            return new Token(Token.Type.DECIMAL, chars.emit());
+            return Token.Type.DECIMAL;
         }
 
-        if (chars.match("[eE]")) {
-            chars.match("[+-]");
-            // must have digits in exponent
-            if (!chars.match("[0-9]")) {
-                throw new LexException("Missing exponent", chars.index);
-            }
-            while (chars.match("[0-9]")) {
-                //return new Token(Token.Type.INTEGER, chars.emit());
-            }
-            return new Token(Token.Type.INTEGER, chars.emit());
+        if (peekExponent()) {
+            chars.match(EXPONENT);
+            chars.match(SIGN);
+            while (chars.match(DIGIT)) {}
+            return Token.Type.INTEGER;
         }
 
-        return new Token(Token.Type.INTEGER, chars.emit());
+        return Token.Type.INTEGER;
 
         //throw new UnsupportedOperationException("TODO: num"); //TODO
     }
 
-    private Token lexCharacter() throws LexException {
+    /**
+     * Exponents are only part of the number if digits follow, so 1e is lexed
+     * as 1 e (same as 1.field above). This needs up to three characters.
+     */
+    private boolean peekExponent() {
+        return chars.peek(EXPONENT, DIGIT) || chars.peek(EXPONENT, SIGN, DIGIT);
+    }
+
+    private Token.Type lexCharacter() {
         //     ['] ([^'\n\r\\] | escape) [']
 //if else
         //preconditions causing problems
-        if (!chars.match("'")) {
-            throw new LexException("lexCharacter", chars.index);
+        if (!chars.match(SINGLE_QUOTE)) {
+            return error(Token.Type.CHARACTER, "lexCharacter");
         }
+        value.setLength(0);
         if(!chars.has(0)) {
-            throw new LexException("lexCharacter unterminated", chars.index);
+            return error(Token.Type.CHARACTER, "lexCharacter unterminated");
         }
 
-        if (chars.match("\\\\")) {
-            //Preconditions.checkState(chars.match("\\\\"));
-            //Preconditions.checkState(chars.match("[bnrt'\"\\\\]"));
-            lexEscape();
+        if (chars.match(BACKSLASH)) {
+            //Preconditions.checkState(chars.match(BACKSLASH));
+            //Preconditions.checkState(chars.match(ESCAPE));
+            if (!lexEscape()) {
+                return error(Token.Type.CHARACTER, "escape exception");
+            }
         } else {
-            if (!chars.match("[^'\n\r\\\\]")) {
-                throw new LexException("lexCharacter invalid", chars.index);
+            if (!chars.match(CHARACTER_BODY)) {
+                return error(Token.Type.CHARACTER, "lexCharacter invalid");
+            }
+            if (!appendBody()) {
+                return error(Token.Type.CHARACTER, "Invalid UTF-8");
+            }
+            if (value.length() != 1) { //supplementary characters are two chars
+                return error(Token.Type.CHARACTER, "lexCharacter invalid");
             }
         }
-        //Preconditions.checkState(chars.match("'"));
-        if (!chars.match("'")) {
-            throw new LexException("LexCharacter unterminated", chars.index);
+        //Preconditions.checkState(chars.match(SINGLE_QUOTE));
+        if (!chars.match(SINGLE_QUOTE)) {
+            return error(Token.Type.CHARACTER, "LexCharacter unterminated");
         }
 
-        return new Token(Token.Type.CHARACTER, chars.emit());
+        return Token.Type.CHARACTER;
         //throw new UnsupportedOperationException("TODO: char"); //TODO
     }
 
-    private Token lexString() throws LexException {
+    private Token.Type lexString() {
         // ([^"\n\r\\] | escape)* '"'
         // needs to have open and closed " and can be broken by escape
-        if (!chars.match("\"")) {
-            throw new LexException("LexString double quote", chars.index);
+        if (!chars.match(DOUBLE_QUOTE)) {
+            return error(Token.Type.STRING, "LexString double quote");
         }
-        while (chars.has(0) && !chars.peek("\"")) {
-            if (chars.match("\\\\")) {
-                lexEscape();
+        value.setLength(0);
+        while (chars.has(0) && !chars.peek(DOUBLE_QUOTE)) {
+            if (chars.match(BACKSLASH)) {
+                if (!lexEscape()) {
+                    return error(Token.Type.STRING, "escape exception");
+                }
             } else {
-                if (!chars.match("[^\"\\\\\n\r]")) {
-                    throw new LexException("lexString invalid", chars.index);
+                if (!chars.match(STRING_BODY)) {
+                    return error(Token.Type.STRING, "lexString invalid");
+                }
+                if (!appendBody()) {
+                    return error(Token.Type.STRING, "Invalid UTF-8");
                 }
             }
         }
-        //Preconditions.checkState(chars.match("\""));//should only work with " closing
-        if (!chars.match("\"")) {
-            throw new LexException("lexString unterminated ", chars.index);
+        //Preconditions.checkState(chars.match(DOUBLE_QUOTE));//should only work with " closing
+        if (!chars.match(DOUBLE_QUOTE)) {
+            return error(Token.Type.STRING, "lexString unterminated ");
         }
 
-        return new Token(Token.Type.STRING, chars.emit());
+        return Token.Type.STRING;
     }
 
-    private void lexEscape() throws LexException {
+    private boolean lexEscape() {
         // '\' [bnrt'"\]
-        //Preconditions.checkState(chars.match("\\\\")); already consumed
+        //Preconditions.checkState(chars.match(BACKSLASH)); already consumed
 
-        if (!chars.match("[bnrt'\"\\\\]")) { //should still match it
-            throw new LexException("escape exception", chars.index);
+        if (!chars.match(ESCAPE)) { //should still match it
+            return false;
         }
+        value.append(escape(chars.charAt(chars.index - 1)));
+        return true;
+    }
+
+    /**
+     * Returns the character for the escape \c, where c is in {@link #ESCAPE}.
+     */
+    static char escape(char c) {
+        return switch (c) {
+            case 'b' -> '\b';
+            case 'n' -> '\n';
+            case 'r' -> '\r';
+            case 't' -> '\t';
+            default -> c; //' " \
+        };
     }
 
-    public Token lexOperator() {
+    public Token.Type lexOperator() {
         //  [<>!=] '='? | [^A-Za-z_0-9'" \b\n\r\t]
         //use if else
-        if (chars.match("[<>!=]")) {
-            chars.match("=");
-            return new Token(Token.Type.OPERATOR, chars.emit());
+        if (chars.match(COMPARISON)) {
+            chars.match(EQUALS);
+            return Token.Type.OPERATOR;
         } else {
-            Preconditions.checkState(chars.match("[^A-Za-z_0-9'\" \b\n\r\t]"));
-            return new Token(Token.Type.OPERATOR, chars.emit());
+            Preconditions.checkState(chars.match(OPERATOR));
+            //In byte input, a non-ASCII character is one token (as for Strings,
+            //except supplementary characters which are two chars there).
+            if (chars.bytes && chars.charAt(chars.index - 1) >= 0xC0) {
+                while (matchContinuation()) {}
+            }
+            return Token.Type.OPERATOR;
         }
         //throw new UnsupportedOperationException("TODO: operator"); //TODO
     }
@@ -210,62 +752,160 @@ chars.emit();
     /**
      * A helper class for maintaining the state of the character stream (input)
      * and methods for building up token literals.
+     *
+     * <p>When streaming from a {@link Reader}, input holds a sliding window of
+     * the characters starting at base, which is refilled by {@link #has} and
+     * only retains characters from the start of the current token. The window
+     * grows only if a single token (or whitespace/comment) doesn't fit.
+     *
+     * <p>Otherwise, the stream covers the (absolute) range from index to limit
+     * of the input, which is the entire input except for parallel chunks.
      */
     private static final class CharStream {
 
-        private final String input;
+        private static final int WINDOW_SIZE = 8192;
+
+        private final Reader reader;
+        private final boolean bytes; //UTF-8 input with one char per byte, see ByteSequence
+        private final MemorySegment segment; //byte input for VectorScanner, if VECTORIZED
+        private CharSequence input;
+        private char[] window;
+        private int base = 0;
+        private int limit;
         private int index = 0;
         private int length = 0;
 
-        public CharStream(String input) {
+        public CharStream(CharSequence input) {
+            this(input, 0, input.length());
+        }
+
+        public CharStream(CharSequence input, int start, int end) {
+            this.reader = null;
+            this.bytes = input instanceof ByteSequence;
+            this.segment = VECTORIZED && input instanceof ByteSequence bytes ? bytes.segment() : null;
             this.input = input;
+            this.index = start;
+            this.limit = end;
+        }
+
+        public CharStream(Reader reader) {
+            this.reader = reader;
+            this.bytes = false;
+            this.segment = null;
+            this.window = new char[WINDOW_SIZE];
+            this.input = CharBuffer.wrap(window, 0, 0);
+            this.limit = 0;
         }
 
         public boolean has(int offset) {
-            return index + offset < input.length();
+            return index + offset < limit || fill(index + offset);
         }
 
         /**
-         * Returns true if the next character(s) match their corresponding
-         * pattern(s). Each pattern is a regex matching ONE character, e.g.:
-         *  - peek("/") is valid and will match the next character
-         *  - peek("/", "/") is valid and will match the next two characters
-         *  - peek("/+") is conceptually invalid, but will match one character
-         *  - peek("//") is strictly invalid as it can never match one character
+         * Reads from the reader until the character at (absolute) index is
+         * available, returning false at the end of input.
          */
-        public boolean peek(String... patterns) {
-            if (!has(patterns.length - 1)) {
+        private boolean fill(int target) {
+            if (reader == null) {
                 return false;
             }
-            for (int offset = 0; offset < patterns.length; offset++) {
-                var character = input.charAt(index + offset);
-                if (!String.valueOf(character).matches(patterns[offset])) {
-                    return false;
+            var mark = index - length;
+            var count = limit - mark;
+            System.arraycopy(window, mark - base, window, 0, count);
+            base = mark;
+            if (target - base >= window.length) {
+                window = Arrays.copyOf(window, Math.max(window.length * 2, target - base + 1));
+            }
+            try {
+                while (count <= target - base) {
+                    var read = reader.read(window, count, window.length - count);
+                    if (read == -1) {
+                        break;
+                    }
+                    count += read;
                 }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
             }
-            return true;
+            input = CharBuffer.wrap(window, 0, count);
+            limit = base + count;
+            return target < limit;
+        }
+
+        private char charAt(int index) {
+            return input.charAt(index - base);
+        }
+
+        /**
+         * Returns the characters from start to end (absolute indices), which
+         * must still be in the window.
+         */
+        public String literal(int start, int end) {
+            return input.subSequence(start - base, end - base).toString();
+        }
+
+        /**
+         * Returns true if the next character(s) match their corresponding
+         * {@link CharClass}(es), e.g.:
+         *  - peek(SLASH) will match the next character
+         *  - peek(SLASH, SLASH) will match the next two characters
+         *
+         * <p>Classes are precompiled lookup tables, so (unlike the regex
+         * patterns used previously) peeking doesn't allocate. Separate
+         * overloads are used instead of varargs for the same reason.
+         */
+        public boolean peek(CharClass first) {
+            return has(0) && first.matches(charAt(index));
+        }
+
+        public boolean peek(CharClass first, CharClass second) {
+            return has(1) && first.matches(charAt(index)) && second.matches(charAt(index + 1));
+        }
+
+        public boolean peek(CharClass first, CharClass second, CharClass third) {
+            return has(2) && first.matches(charAt(index)) && second.matches(charAt(index + 1)) && third.matches(charAt(index + 2));
         }
 
         /**
          * Equivalent to peek, but also advances the character stream.
          */
-        public boolean match(String... patterns) {
-            var peek = peek(patterns);
+        public boolean match(CharClass first) {
+            var peek = peek(first);
             if (peek) {
-                index += patterns.length;
-                length += patterns.length;
+                index += 1;
+                length += 1;
             }
             return peek;
         }
 
+        public boolean match(CharClass first, CharClass second) {
+            var peek = peek(first, second);
+            if (peek) {
+                index += 2;
+                length += 2;
+            }
+            return peek;
+        }
+
+        /**
+         * Advances to the (absolute) index end, as if the characters in
+         * between were matched.
+         */
+        public void advance(int end) {
+            length += end - index;
+            index = end;
+        }
+
         /**
-         * Returns the literal built by all characters matched since the last
+         * Returns the start offset of all characters matched since the last
          * call to emit(); also resetting the length for subsequent tokens.
+         * The literal itself is only created later, if needed, by the
+         * {@link TokenBuffer}.
          */
-        public String emit() {
-            var literal = input.substring(index - length, index);
+        public int emit() {
+            var start = index - length;
             length = 0;
-            return literal;
+            return start;
         }
 
     }
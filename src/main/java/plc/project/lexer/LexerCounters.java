@@ -0,0 +1,108 @@
+package plc.project.lexer;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link LexerMetrics} accumulated into counters, which can be polled (e.g.
+ * by a monitoring endpoint) while lexers record into them from any thread.
+ */
+public final class LexerCounters implements LexerMetrics {
+
+    private static final Token.Type[] TYPES = Token.Type.values();
+
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder[] tokens = new LongAdder[TYPES.length];
+    private final LongAdder scanned = new LongAdder();
+    private final LongAdder nanos = new LongAdder();
+    private final LongAdder allocatedBytes = new LongAdder();
+    private final LongAdder allocationTokens = new LongAdder(); //tokens from calls where allocations were measured
+
+    public LexerCounters() {
+        for (int i = 0; i < tokens.length; i++) {
+            tokens[i] = new LongAdder();
+        }
+    }
+
+    @Override
+    public void record(TokenBuffer tokens, int scanned, long nanos, long allocatedBytes) {
+        var counts = tokens.counts();
+        for (int i = 0; i < counts.length; i++) {
+            this.tokens[i].add(counts[i]);
+        }
+        calls.increment();
+        this.scanned.add(scanned);
+        this.nanos.add(nanos);
+        if (allocatedBytes >= 0) {
+            this.allocatedBytes.add(allocatedBytes);
+            allocationTokens.add(tokens.size());
+        }
+    }
+
+    public long calls() {
+        return calls.sum();
+    }
+
+    public long tokens(Token.Type type) {
+        return tokens[type.ordinal()].sum();
+    }
+
+    public long tokens() {
+        var sum = 0L;
+        for (var counter : tokens) {
+            sum += counter.sum();
+        }
+        return sum;
+    }
+
+    /**
+     * Returns the number of characters scanned, which are bytes for byte
+     * input.
+     */
+    public long scanned() {
+        return scanned.sum();
+    }
+
+    public long nanos() {
+        return nanos.sum();
+    }
+
+    /**
+     * Returns the characters (or bytes) scanned per second, or 0 if nothing
+     * has been recorded.
+     */
+    public double throughput() {
+        var nanos = nanos();
+        return nanos == 0 ? 0 : scanned() * 1e9 / nanos;
+    }
+
+    /**
+     * Returns the bytes allocated by lexing threads, if the JVM supports
+     * measuring it (otherwise 0).
+     */
+    public long allocatedBytes() {
+        return allocatedBytes.sum();
+    }
+
+    /**
+     * Returns the estimated bytes allocated per token, or 0 if nothing has
+     * been recorded. This includes the TokenBuffer and decoded values, which
+     * are amortized over the tokens, as well as any unrelated allocations by
+     * the same thread during the call.
+     */
+    public double allocatedBytesPerToken() {
+        var tokens = allocationTokens.sum();
+        return tokens == 0 ? 0 : (double) allocatedBytes() / tokens;
+    }
+
+    public void reset() {
+        calls.reset();
+        for (var counter : tokens) {
+            counter.reset();
+        }
+        scanned.reset();
+        nanos.reset();
+        allocatedBytes.reset();
+        allocationTokens.reset();
+    }
+
+}
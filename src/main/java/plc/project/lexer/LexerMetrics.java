@@ -0,0 +1,34 @@
+package plc.project.lexer;
+
+/**
+ * Receives metrics for each call to {@link Lexer#lexBuffer()} (and
+ * {@link Lexer#lex()}), {@link Lexer#lexRecovering()}, and
+ * {@link Lexer#lexParallel}, once enabled with {@link Lexer#setMetrics}.
+ * Streaming with {@link Lexer#nextToken()} and {@link Lexer#relex} are not
+ * measured, as they lex a token or an edit at a time, and neither are calls
+ * throwing a {@link LexException}.
+ *
+ * <p>{@link LexerCounters} accumulates metrics to be polled, and
+ * {@link #jfr()} exports each call as a {@link LexEvent}.
+ */
+@FunctionalInterface
+public interface LexerMetrics {
+
+    /**
+     * Records one call which lexed the tokens (including any error tokens)
+     * after scanning the given number of characters (bytes, for byte input)
+     * in nanos. allocatedBytes is the memory allocated by the calling thread,
+     * which excludes the chunks lexed by {@link Lexer#lexParallel}, or -1 if
+     * the JVM doesn't support measuring it.
+     */
+    void record(TokenBuffer tokens, int scanned, long nanos, long allocatedBytes);
+
+    /**
+     * Returns metrics committing a {@link LexEvent} for each call, if the
+     * event is enabled in the current JFR recording.
+     */
+    static LexerMetrics jfr() {
+        return LexEvent::emit;
+    }
+
+}
@@ -0,0 +1,101 @@
+package plc.project.lexer;
+
+import com.google.common.base.Preconditions;
+
+import java.util.Arrays;
+
+/**
+ * The start offsets of each line in the source, recorded by the lexer as it
+ * consumes newlines. Lines and columns (both 1-based) are computed from an
+ * offset with a binary search, so positions only need to store offsets.
+ *
+ * <p>The first line always starts at 0 and is not stored, so sources without
+ * newlines don't allocate anything beyond the initial array.
+ */
+public final class LineTable {
+
+    private int[] starts = new int[16]; //starts of lines 2, 3, ...
+    private int size = 0;
+
+    /**
+     * Adds the start of the next line, i.e. the offset after a newline.
+     */
+    void add(int start) {
+        Preconditions.checkArgument(size == 0 || starts[size - 1] < start);
+        if (size == starts.length) {
+            starts = Arrays.copyOf(starts, size * 2);
+        }
+        starts[size++] = start;
+    }
+
+    /**
+     * Appends the lines of other, which must all start after these lines
+     * (e.g. from the next chunk of the input).
+     */
+    void addAll(LineTable other) {
+        for (int i = 0; i < other.size; i++) {
+            add(other.starts[i]);
+        }
+    }
+
+    /**
+     * Returns the lines of the source after replacing removed characters at
+     * offset with the inserted text, see {@link Lexer#relex}.
+     */
+    LineTable edit(int offset, int removed, String inserted) {
+        var lines = new LineTable();
+        var i = 0;
+        while (i < size && starts[i] <= offset) {
+            lines.add(starts[i++]);
+        }
+        for (int j = 0; j < inserted.length(); j++) {
+            if (inserted.charAt(j) == '\n') {
+                lines.add(offset + j + 1);
+            }
+        }
+        while (i < size && starts[i] <= offset + removed) {
+            i++;
+        }
+        for (; i < size; i++) {
+            lines.add(starts[i] - removed + inserted.length());
+        }
+        return lines;
+    }
+
+    /**
+     * Returns the number of lines seen so far.
+     */
+    public int lines() {
+        return size + 1;
+    }
+
+    /**
+     * Returns the offset of the first character of line.
+     */
+    public int start(int line) {
+        Preconditions.checkElementIndex(line - 1, size + 1);
+        return line == 1 ? 0 : starts[line - 2];
+    }
+
+    /**
+     * Returns the line containing offset.
+     */
+    public int line(int offset) {
+        Preconditions.checkArgument(offset >= 0, "Negative offset %s.", offset);
+        var index = Arrays.binarySearch(starts, 0, size, offset);
+        return index >= 0 ? index + 2 : -index;
+    }
+
+    public int column(int offset) {
+        return offset - start(line(offset)) + 1;
+    }
+
+    /**
+     * Returns the position of offset as line:column.
+     */
+    public String format(int offset) {
+        var line = line(offset);
+        return line + ":" + (offset - start(line) + 1);
+    }
+
+}
@@ -0,0 +1,31 @@
+package plc.project.lexer;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Helpers for spans, which are (start, end) source offsets packed into a
+ * single long so they can be stored in primitive arrays without an object per
+ * token or AST node. Offsets map to lines and columns with a {@link LineTable}.
+ */
+public final class Span {
+
+    private Span() {}
+
+    public static long of(int start, int end) {
+        Preconditions.checkArgument(0 <= start && start <= end, "Invalid span [%s, %s).", start, end);
+        return ((long) start << 32) | end;
+    }
+
+    public static int start(long span) {
+        return (int) (span >>> 32);
+    }
+
+    public static int end(long span) {
+        return (int) span;
+    }
+
+    public static String toString(long span) {
+        return "[" + start(span) + ", " + end(span) + ")";
+    }
+
+}
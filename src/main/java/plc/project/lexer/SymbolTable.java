@@ -0,0 +1,105 @@
+package plc.project.lexer;
+
+import com.google.common.base.Preconditions;
+
+import java.util.Arrays;
+
+/**
+ * Interns identifiers into integer ids, with a single canonical String per
+ * distinct identifier. Lookups hash and compare the characters in the source
+ * directly, so a String is only created the first time an identifier is seen.
+ *
+ * <p>Since AST names come from the canonical Strings, scope lookups of the
+ * same identifier reuse the cached hash code and succeed on the identity
+ * check in {@link String#equals}.
+ */
+public final class SymbolTable {
+
+    private String[] names = new String[64];
+    private int[] hashes = new int[64];
+    private int[] slots = new int[128]; //id + 1, or 0 if empty
+    private int size = 0;
+
+    public SymbolTable() {
+        for (var keyword : Keyword.values()) {
+            Preconditions.checkState(intern(keyword.name()) == keyword.ordinal());
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the canonical String for the symbol id.
+     */
+    public String name(int id) {
+        Preconditions.checkElementIndex(id, size);
+        return names[id];
+    }
+
+    public int intern(String name) {
+        return intern(name, 0, name.length());
+    }
+
+    /**
+     * Returns the id for the characters from start to end of the source,
+     * adding a new symbol if it hasn't been seen before.
+     */
+    public int intern(CharSequence source, int start, int end) {
+        var hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + source.charAt(i);
+        }
+        var mask = slots.length - 1;
+        var slot = (hash ^ (hash >>> 16)) & mask;
+        while (slots[slot] != 0) {
+            var id = slots[slot] - 1;
+            if (hashes[id] == hash && matches(names[id], source, start, end)) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return add(slot, hash, source.subSequence(start, end).toString());
+    }
+
+    private static boolean matches(String name, CharSequence source, int start, int end) {
+        if (name.length() != end - start) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) != source.charAt(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int add(int slot, int hash, String name) {
+        var id = size++;
+        if (id == names.length) {
+            names = Arrays.copyOf(names, id * 2);
+            hashes = Arrays.copyOf(hashes, id * 2);
+        }
+        names[id] = name;
+        hashes[id] = hash;
+        slots[slot] = id + 1;
+        if (size * 2 > slots.length) {
+            rehash();
+        }
+        return id;
+    }
+
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        var mask = slots.length - 1;
+        for (int id = 0; id < size; id++) {
+            var slot = (hashes[id] ^ (hashes[id] >>> 16)) & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = id + 1;
+        }
+    }
+
+}
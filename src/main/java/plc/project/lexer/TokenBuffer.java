@@ -0,0 +1,307 @@
+package plc.project.lexer;
+
+import com.google.common.base.Preconditions;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A compact list of tokens stored as (type, start, length) offsets into a
+ * shared source buffer, rather than one {@link Token} with its own literal
+ * String per token. Literals are only created on demand through
+ * {@link #literal(int)} or {@link #get(int)}, and {@link #literalEquals} allows
+ * comparing against operators without creating Strings at all.
+ *
+ * <p>Identifiers are interned into a {@link SymbolTable} as they are added, so
+ * keywords are classified by {@link #isKeyword} with an int comparison and
+ * identifier literals are canonical Strings that don't need to be created.
+ *
+ * <p>STRING and CHARACTER tokens also have their decoded value (without
+ * quotes and with escapes replaced), see {@link #value}.
+ *
+ * <p>Positions are the start offsets and lengths (see {@link #span}), which
+ * are mapped to lines and columns by the {@link LineTable} from the lexer.
+ *
+ * <p>Buffers from {@link Lexer#lexRecovering()} may also contain error
+ * tokens, see {@link #isError}.
+ *
+ * <p>{@link Token} remains the public API; this is the representation used
+ * internally between the lexer and the parser.
+ */
+public final class TokenBuffer {
+
+    private static final Token.Type[] TYPES = Token.Type.values();
+    private static final int ERROR = 0x80; //flag in types, which are ordinals
+
+    private final CharSequence source;
+    private final SymbolTable symbols;
+    private final LineTable lines;
+    private byte[] types = new byte[16];
+    private int[] starts = new int[16];
+    private int[] lengths = new int[16];
+    private int[] ids = new int[16]; //symbol ids for identifiers, otherwise -1
+    private String[] values; //decoded STRING/CHARACTER values, allocated with the first one
+    private int size = 0;
+
+    public TokenBuffer(CharSequence source) {
+        this(source, new SymbolTable());
+    }
+
+    public TokenBuffer(CharSequence source, SymbolTable symbols) {
+        this(source, symbols, new LineTable());
+    }
+
+    TokenBuffer(CharSequence source, SymbolTable symbols, LineTable lines) {
+        this.source = source;
+        this.symbols = symbols;
+        this.lines = lines;
+    }
+
+    /**
+     * Creates a buffer from already materialized tokens, concatenating their
+     * literals into a new source. Used to support {@code Parser(List<Token>)}.
+     */
+    public static TokenBuffer of(List<Token> tokens) {
+        return of(tokens, new SymbolTable());
+    }
+
+    public static TokenBuffer of(List<Token> tokens, SymbolTable symbols) {
+        var builder = new StringBuilder();
+        for (var token : tokens) {
+            builder.append(token.literal());
+        }
+        var buffer = new TokenBuffer(builder.toString(), symbols);
+        var start = 0;
+        for (var token : tokens) {
+            buffer.add(token.type(), start, token.literal().length());
+            start += token.literal().length();
+        }
+        return buffer;
+    }
+
+    void add(Token.Type type, int start, int length) {
+        var id = type == Token.Type.IDENTIFIER ? symbols.intern(source, start, start + length) : -1;
+        add(type.ordinal(), start, length, id);
+    }
+
+    /**
+     * Adds a STRING/CHARACTER token with its value, decoded by the lexer.
+     */
+    void add(Token.Type type, int start, int length, String value) {
+        add(type.ordinal(), start, length, -1);
+        setValue(size - 1, value);
+    }
+
+    private void setValue(int index, String value) {
+        if (values == null || values.length <= index) {
+            values = values == null ? new String[types.length] : Arrays.copyOf(values, types.length);
+        }
+        values[index] = value;
+    }
+
+    /**
+     * Adds an error token, which is not interned even if it is an identifier.
+     */
+    void addError(Token.Type type, int start, int length) {
+        add(type.ordinal() | ERROR, start, length, -1);
+    }
+
+    private void add(int type, int start, int length, int id) {
+        if (size == types.length) {
+            var capacity = size * 2;
+            types = Arrays.copyOf(types, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            ids = Arrays.copyOf(ids, capacity);
+        }
+        types[size] = (byte) type;
+        starts[size] = start;
+        lengths[size] = length;
+        ids[size] = id;
+        size++;
+    }
+
+    /**
+     * Appends all tokens from other, which must share the same source.
+     */
+    void addAll(TokenBuffer other) {
+        Preconditions.checkArgument(other.source == source);
+        addRange(other, 0, other.size, 0);
+    }
+
+    /**
+     * Appends the tokens from other in the range [from, to), adding shift to
+     * their start offsets. Used to reuse tokens after an edit. Symbol ids are
+     * copied if both buffers share a symbol table, and re-interned otherwise.
+     */
+    void addRange(TokenBuffer other, int from, int to, int shift) {
+        for (int i = from; i < to; i++) {
+            var start = other.starts[i] + shift;
+            var id = other.ids[i];
+            if (other.symbols != symbols && id != -1) {
+                id = symbols.intern(source, start, start + other.lengths[i]);
+            }
+            add(other.types[i] & 0xFF, start, other.lengths[i], id);
+            if (other.values != null && i < other.values.length && other.values[i] != null) {
+                setValue(size - 1, other.values[i]);
+            }
+        }
+    }
+
+    public CharSequence source() {
+        return source;
+    }
+
+    public SymbolTable symbols() {
+        return symbols;
+    }
+
+    /**
+     * Returns the lines of the source. Buffers created from a
+     * {@code List<Token>} don't have any whitespace, and thus only one line.
+     */
+    public LineTable lines() {
+        return lines;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public Token.Type type(int index) {
+        Preconditions.checkElementIndex(index, size);
+        return TYPES[types[index] & 0xFF & ~ERROR];
+    }
+
+    /**
+     * Returns true if the token is an error recorded by
+     * {@link Lexer#lexRecovering()}, in which case {@link #type} is the type
+     * of token that was being lexed (e.g. an unterminated STRING). Error
+     * tokens are not distinguished by {@link #get} or {@link #toList()}.
+     */
+    public boolean isError(int index) {
+        Preconditions.checkElementIndex(index, size);
+        return (types[index] & ERROR) != 0;
+    }
+
+    /**
+     * Returns the number of tokens of each type, indexed by ordinal.
+     */
+    int[] counts() {
+        var counts = new int[TYPES.length];
+        for (int i = 0; i < size; i++) {
+            counts[types[i] & 0xFF & ~ERROR]++;
+        }
+        return counts;
+    }
+
+    /**
+     * Returns the offset of the token's first character in the source.
+     */
+    public int start(int index) {
+        Preconditions.checkElementIndex(index, size);
+        return starts[index];
+    }
+
+    public int length(int index) {
+        Preconditions.checkElementIndex(index, size);
+        return lengths[index];
+    }
+
+    /**
+     * Returns the token's start and end offsets packed as a {@link Span}.
+     */
+    public long span(int index) {
+        Preconditions.checkElementIndex(index, size);
+        return Span.of(starts[index], starts[index] + lengths[index]);
+    }
+
+    /**
+     * Returns the symbol id of an identifier token, or -1 for other types.
+     */
+    public int symbol(int index) {
+        Preconditions.checkElementIndex(index, size);
+        return ids[index];
+    }
+
+    public boolean isKeyword(int index, Keyword keyword) {
+        Preconditions.checkElementIndex(index, size);
+        return ids[index] == keyword.ordinal();
+    }
+
+    /**
+     * Returns the literal of the token, which is the canonical String from
+     * the symbol table for identifiers and a new String otherwise.
+     */
+    public String literal(int index) {
+        Preconditions.checkElementIndex(index, size);
+        if (ids[index] != -1) {
+            return symbols.name(ids[index]);
+        }
+        return source.subSequence(starts[index], starts[index] + lengths[index]).toString();
+    }
+
+    /**
+     * Returns the decoded value of a STRING or CHARACTER token, which is the
+     * literal without quotes and with escapes replaced. Values are decoded by
+     * the lexer while validating escapes; tokens added without one (e.g. from
+     * a {@code List<Token>}) are decoded here instead.
+     */
+    public String value(int index) {
+        var type = type(index);
+        Preconditions.checkArgument(type == Token.Type.STRING || type == Token.Type.CHARACTER,
+            "Token %s is not a string or character.", index);
+        if (values != null && index < values.length && values[index] != null) {
+            return values[index];
+        }
+        var end = Math.max(starts[index] + 1, starts[index] + lengths[index] - 1); //unterminated error tokens
+        var literal = source.subSequence(starts[index] + 1, end).toString();
+        if (literal.indexOf('\\') == -1) {
+            return literal;
+        }
+        var builder = new StringBuilder(literal.length());
+        for (int i = 0; i < literal.length(); i++) {
+            var c = literal.charAt(i);
+            if (c == '\\' && i + 1 < literal.length()) {
+                c = Lexer.escape(literal.charAt(++i));
+            }
+            builder.append(c);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Returns true if the token's literal is equal to text, comparing directly
+     * against the source without creating a String.
+     */
+    public boolean literalEquals(int index, String text) {
+        Preconditions.checkElementIndex(index, size);
+        if (lengths[index] != text.length()) {
+            return false;
+        }
+        var start = starts[index];
+        for (int i = 0; i < text.length(); i++) {
+            if (source.charAt(start + i) != text.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the token at index, materializing its literal.
+     */
+    public Token get(int index) {
+        return new Token(type(index), literal(index));
+    }
+
+    public List<Token> toList() {
+        var tokens = new ArrayList<Token>(size);
+        for (int i = 0; i < size; i++) {
+            tokens.add(get(i));
+        }
+        return tokens;
+    }
+
+}
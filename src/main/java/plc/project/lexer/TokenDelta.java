@@ -0,0 +1,14 @@
+package plc.project.lexer;
+
+/**
+ * The result of {@link Lexer#relex}: the tokens in the range
+ * [start, start + removed) of the previous buffer were replaced by the tokens
+ * in the range [start, start + inserted) of the new buffer. All other tokens
+ * are unchanged, other than start offsets being shifted after the edit.
+ */
+public record TokenDelta(
+    TokenBuffer tokens,
+    int start,
+    int removed,
+    int inserted
+) {}
@@ -0,0 +1,77 @@
+package plc.project.lexer;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteOrder;
+
+/**
+ * Vector API (SIMD) fast paths for skipping whitespace and comments in byte
+ * input, which compare a full vector of bytes (16-64, depending on the
+ * hardware) per iteration instead of matching one character at a time.
+ *
+ * <p>Only full vectors are scanned, returning the index where the scalar loop
+ * in {@link Lexer} should continue. Newlines are still recorded in the
+ * {@link LineTable}, using the lanes of the newline mask.
+ *
+ * <p>This class requires the jdk.incubator.vector module and must only be
+ * used if {@link Lexer#VECTORIZED} is true.
+ */
+final class VectorScanner {
+
+    private static final VectorSpecies<Byte> SPECIES = ByteVector.SPECIES_PREFERRED;
+
+    private VectorScanner() {}
+
+    /**
+     * Returns the index of the first non-whitespace byte at or after index,
+     * or the start of the remaining bytes that don't fill a vector.
+     */
+    static int skipWhitespace(MemorySegment input, int index, int limit, LineTable lines) {
+        for (; index + SPECIES.length() <= limit; index += SPECIES.length()) {
+            var bytes = ByteVector.fromMemorySegment(SPECIES, input, index, ByteOrder.nativeOrder());
+            var newlines = bytes.eq((byte) '\n');
+            var whitespace = newlines
+                .or(bytes.eq((byte) ' '))
+                .or(bytes.eq((byte) '\b'))
+                .or(bytes.eq((byte) '\r'))
+                .or(bytes.eq((byte) '\t'));
+            var end = whitespace.not().firstTrue(); //the length if all are whitespace
+            addLines(lines, newlines.toLong(), index, end);
+            if (end < SPECIES.length()) {
+                return index + end;
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Returns the index of the first newline at or after index (which ends a
+     * comment), or the start of the remaining bytes that don't fill a vector.
+     */
+    static int skipComment(MemorySegment input, int index, int limit) {
+        for (; index + SPECIES.length() <= limit; index += SPECIES.length()) {
+            var bytes = ByteVector.fromMemorySegment(SPECIES, input, index, ByteOrder.nativeOrder());
+            var newline = bytes.eq((byte) '\n').firstTrue();
+            if (newline < SPECIES.length()) {
+                return index + newline;
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Adds a line for each newline lane before end.
+     */
+    private static void addLines(LineTable lines, long newlines, int index, int end) {
+        if (end < Long.SIZE) {
+            newlines &= (1L << end) - 1;
+        }
+        while (newlines != 0) {
+            lines.add(index + Long.numberOfTrailingZeros(newlines) + 1);
+            newlines &= newlines - 1;
+        }
+    }
+
+}
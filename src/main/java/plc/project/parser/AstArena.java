@@ -0,0 +1,458 @@
+package plc.project.parser;
+
+import com.google.common.base.Preconditions;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * A flat encoding of an {@link Ast.Source} tree, with every node stored in a
+ * few shared arrays rather than as a record (plus its Lists and Optionals).
+ * This uses a fraction of the memory for large trees, and is converted from
+ * and to records with {@link #of} and {@link #toAst}.
+ *
+ * <p>Nodes are ids in post-order, so children always come before their
+ * parent and the root is the last node. Each node has a {@link Kind} and a
+ * range of int operands, which are node ids, constant ids (names, types, and
+ * literal values), or counts as listed for each kind. Absent optionals (and
+ * the NIL literal) are -1.
+ *
+ * <p>The tree can be traversed with the accessors on the arena, or by a
+ * {@link Visitor} like {@link Ast.Visitor}.
+ */
+public final class AstArena {
+
+    public enum Kind {
+        /** statement... */
+        SOURCE,
+        /** name, type, value */
+        LET,
+        /** name, returnType, parameter count, (parameter, type)..., statement... */
+        DEF,
+        /** condition, then count, then statement..., else statement... */
+        IF,
+        /** name, expression, statement... */
+        FOR,
+        /** value */
+        RETURN,
+        /** expression */
+        EXPRESSION,
+        /** expression, value */
+        ASSIGNMENT,
+        /** value */
+        LITERAL,
+        /** expression */
+        GROUP,
+        /** operator, left, right */
+        BINARY,
+        /** name */
+        VARIABLE,
+        /** receiver, name */
+        PROPERTY,
+        /** name, argument... */
+        FUNCTION,
+        /** receiver, name, argument... */
+        METHOD,
+        /** name, field count, field..., method... */
+        OBJECT,
+    }
+
+    private static final Kind[] KINDS = Kind.values();
+
+    private final byte[] kinds;
+    private final int[] starts; //operands of node i are [starts[i], starts[i + 1])
+    private final int[] operands;
+    private final Object[] constants;
+
+    private AstArena(byte[] kinds, int[] starts, int[] operands, Object[] constants) {
+        this.kinds = kinds;
+        this.starts = starts;
+        this.operands = operands;
+        this.constants = constants;
+    }
+
+    /**
+     * Encodes the tree. Lazily parsed DEF bodies are parsed while encoding,
+     * throwing an {@link UncheckedParseException} if one is invalid.
+     */
+    public static AstArena of(Ast.Source ast) {
+        var builder = new Builder();
+        builder.add(ast);
+        return builder.build();
+    }
+
+    public int size() {
+        return kinds.length;
+    }
+
+    public int root() {
+        return kinds.length - 1;
+    }
+
+    public Kind kind(int node) {
+        return KINDS[kinds[node]];
+    }
+
+    public int operands(int node) {
+        return starts[node + 1] - starts[node];
+    }
+
+    public int operand(int node, int index) {
+        Preconditions.checkElementIndex(index, operands(node));
+        return operands[starts[node] + index];
+    }
+
+    /**
+     * Returns the constant, which is a String for names and types, or null
+     * for -1.
+     */
+    public Object constant(int id) {
+        return id == -1 ? null : constants[id];
+    }
+
+    public String string(int id) {
+        return (String) constant(id);
+    }
+
+    /**
+     * Returns the approximate number of bytes used by the arena's arrays,
+     * excluding the constants themselves (which are shared with the AST).
+     */
+    public long bytes() {
+        //16 bytes per array header, plus 4 per constant reference
+        return 16 + kinds.length + 16 + 4L * starts.length + 16 + 4L * operands.length + 16 + 4L * constants.length;
+    }
+
+    /**
+     * Converts the arena back into records, which are equal to the original
+     * tree.
+     */
+    public Ast.Source toAst() {
+        return (Ast.Source) accept(new ToAst(), root());
+    }
+
+    public <T, E extends Exception> T accept(Visitor<T, E> visitor, int node) throws E {
+        return switch (kind(node)) {
+            case SOURCE -> visitor.visitSource(this, node);
+            case LET -> visitor.visitLet(this, node);
+            case DEF -> visitor.visitDef(this, node);
+            case IF -> visitor.visitIf(this, node);
+            case FOR -> visitor.visitFor(this, node);
+            case RETURN -> visitor.visitReturn(this, node);
+            case EXPRESSION -> visitor.visitExpression(this, node);
+            case ASSIGNMENT -> visitor.visitAssignment(this, node);
+            case LITERAL -> visitor.visitLiteral(this, node);
+            case GROUP -> visitor.visitGroup(this, node);
+            case BINARY -> visitor.visitBinary(this, node);
+            case VARIABLE -> visitor.visitVariable(this, node);
+            case PROPERTY -> visitor.visitProperty(this, node);
+            case FUNCTION -> visitor.visitFunction(this, node);
+            case METHOD -> visitor.visitMethod(this, node);
+            case OBJECT -> visitor.visitObject(this, node);
+        };
+    }
+
+    /**
+     * Visits nodes by id, with a method for each {@link Kind} (see the kinds
+     * for their operands), dispatched by {@link #accept}.
+     */
+    public interface Visitor<T, E extends Exception> {
+
+        T visitSource(AstArena arena, int node) throws E;
+        T visitLet(AstArena arena, int node) throws E;
+        T visitDef(AstArena arena, int node) throws E;
+        T visitIf(AstArena arena, int node) throws E;
+        T visitFor(AstArena arena, int node) throws E;
+        T visitReturn(AstArena arena, int node) throws E;
+        T visitExpression(AstArena arena, int node) throws E;
+        T visitAssignment(AstArena arena, int node) throws E;
+        T visitLiteral(AstArena arena, int node) throws E;
+        T visitGroup(AstArena arena, int node) throws E;
+        T visitBinary(AstArena arena, int node) throws E;
+        T visitVariable(AstArena arena, int node) throws E;
+        T visitProperty(AstArena arena, int node) throws E;
+        T visitFunction(AstArena arena, int node) throws E;
+        T visitMethod(AstArena arena, int node) throws E;
+        T visitObject(AstArena arena, int node) throws E;
+
+    }
+
+    private static final class Builder {
+
+        private byte[] kinds = new byte[64];
+        private int[] starts = new int[65];
+        private int[] operands = new int[128];
+        private final List<Object> constants = new ArrayList<>();
+        private final Map<Object, Integer> ids = new HashMap<>();
+        private int size = 0;
+        private int length = 0; //of operands
+
+        private AstArena build() {
+            return new AstArena(
+                Arrays.copyOf(kinds, size),
+                Arrays.copyOf(starts, size + 1),
+                Arrays.copyOf(operands, length),
+                constants.toArray()
+            );
+        }
+
+        private int add(Ast ast) {
+            return switch (ast) {
+                case Ast.Source source -> node(Kind.SOURCE, nodes(source.statements()));
+                case Ast.Stmt.Let stmt -> node(Kind.LET, constant(stmt.name()), constant(stmt.type()), optional(stmt.value()));
+                case Ast.Stmt.Def stmt -> {
+                    var parameters = new int[2 * stmt.parameters().size()];
+                    for (int i = 0; i < stmt.parameters().size(); i++) {
+                        parameters[2 * i] = constant(stmt.parameters().get(i));
+                        parameters[2 * i + 1] = constant(stmt.parameterTypes().get(i));
+                    }
+                    var header = new int[] {constant(stmt.name()), constant(stmt.returnType()), stmt.parameters().size()};
+                    yield node(Kind.DEF, concat(header, parameters, nodes(stmt.body())));
+                }
+                case Ast.Stmt.If stmt -> {
+                    var condition = add(stmt.condition());
+                    var thenBody = nodes(stmt.thenBody());
+                    yield node(Kind.IF, concat(new int[] {condition, thenBody.length}, thenBody, nodes(stmt.elseBody())));
+                }
+                case Ast.Stmt.For stmt -> node(Kind.FOR, concat(new int[] {constant(stmt.name()), add(stmt.expression())}, nodes(stmt.body())));
+                case Ast.Stmt.Return stmt -> node(Kind.RETURN, optional(stmt.value()));
+                case Ast.Stmt.Expression stmt -> node(Kind.EXPRESSION, add(stmt.expression()));
+                case Ast.Stmt.Assignment stmt -> node(Kind.ASSIGNMENT, add(stmt.expression()), add(stmt.value()));
+                case Ast.Expr.Literal expr -> node(Kind.LITERAL, expr.value() == null ? -1 : constant(expr.value()));
+                case Ast.Expr.Group expr -> node(Kind.GROUP, add(expr.expression()));
+                case Ast.Expr.Binary expr -> node(Kind.BINARY, constant(expr.operator()), add(expr.left()), add(expr.right()));
+                case Ast.Expr.Variable expr -> node(Kind.VARIABLE, constant(expr.name()));
+                case Ast.Expr.Property expr -> node(Kind.PROPERTY, add(expr.receiver()), constant(expr.name()));
+                case Ast.Expr.Function expr -> node(Kind.FUNCTION, concat(new int[] {constant(expr.name())}, nodes(expr.arguments())));
+                case Ast.Expr.Method expr -> {
+                    var receiver = add(expr.receiver());
+                    yield node(Kind.METHOD, concat(new int[] {receiver, constant(expr.name())}, nodes(expr.arguments())));
+                }
+                case Ast.Expr.ObjectExpr expr -> {
+                    var fields = nodes(expr.fields());
+                    yield node(Kind.OBJECT, concat(new int[] {constant(expr.name()), fields.length}, fields, nodes(expr.methods())));
+                }
+            };
+        }
+
+        private int[] nodes(List<? extends Ast> asts) {
+            var nodes = new int[asts.size()];
+            for (int i = 0; i < nodes.length; i++) {
+                nodes[i] = add(asts.get(i));
+            }
+            return nodes;
+        }
+
+        private int optional(Optional<? extends Ast> ast) {
+            return ast.isPresent() ? add(ast.get()) : -1;
+        }
+
+        /**
+         * Returns the id of the constant, with equal constants (e.g. each use
+         * of a name) sharing an id.
+         */
+        private int constant(Object value) {
+            return ids.computeIfAbsent(value, v -> {
+                constants.add(v);
+                return constants.size() - 1;
+            });
+        }
+
+        private int constant(Optional<String> value) {
+            return value.isPresent() ? constant((Object) value.get()) : -1;
+        }
+
+        private static int[] concat(int[]... groups) {
+            var length = 0;
+            for (var group : groups) {
+                length += group.length;
+            }
+            var operands = new int[length];
+            var offset = 0;
+            for (var group : groups) {
+                System.arraycopy(group, 0, operands, offset, group.length);
+                offset += group.length;
+            }
+            return operands;
+        }
+
+        private int node(Kind kind, int... operands) {
+            if (size + 1 == kinds.length) {
+                kinds = Arrays.copyOf(kinds, kinds.length * 2);
+                starts = Arrays.copyOf(starts, starts.length * 2);
+            }
+            if (length + operands.length > this.operands.length) {
+                this.operands = Arrays.copyOf(this.operands, Math.max(this.operands.length * 2, length + operands.length));
+            }
+            System.arraycopy(operands, 0, this.operands, length, operands.length);
+            length += operands.length;
+            kinds[size] = (byte) kind.ordinal();
+            starts[++size] = length;
+            return size - 1;
+        }
+
+    }
+
+    /**
+     * Converts nodes back into records.
+     */
+    private static final class ToAst implements Visitor<Ast, RuntimeException> {
+
+        @Override
+        public Ast visitSource(AstArena arena, int node) {
+            return new Ast.Source(stmts(arena, node, 0, arena.operands(node)));
+        }
+
+        @Override
+        public Ast visitLet(AstArena arena, int node) {
+            return new Ast.Stmt.Let(
+                arena.string(arena.operand(node, 0)),
+                optionalString(arena, arena.operand(node, 1)),
+                optionalExpr(arena, arena.operand(node, 2))
+            );
+        }
+
+        @Override
+        public Ast visitDef(AstArena arena, int node) {
+            var count = arena.operand(node, 2);
+            var parameters = new String[count];
+            var parameterTypes = new ArrayList<Optional<String>>(count);
+            for (int i = 0; i < count; i++) {
+                parameters[i] = arena.string(arena.operand(node, 3 + 2 * i));
+                parameterTypes.add(optionalString(arena, arena.operand(node, 4 + 2 * i)));
+            }
+            return new Ast.Stmt.Def(
+                arena.string(arena.operand(node, 0)),
+                List.of(parameters),
+                List.copyOf(parameterTypes),
+                optionalString(arena, arena.operand(node, 1)),
+                stmts(arena, node, 3 + 2 * count, arena.operands(node))
+            );
+        }
+
+        @Override
+        public Ast visitIf(AstArena arena, int node) {
+            var elseStart = 2 + arena.operand(node, 1);
+            return new Ast.Stmt.If(
+                expr(arena, arena.operand(node, 0)),
+                stmts(arena, node, 2, elseStart),
+                stmts(arena, node, elseStart, arena.operands(node))
+            );
+        }
+
+        @Override
+        public Ast visitFor(AstArena arena, int node) {
+            return new Ast.Stmt.For(
+                arena.string(arena.operand(node, 0)),
+                expr(arena, arena.operand(node, 1)),
+                stmts(arena, node, 2, arena.operands(node))
+            );
+        }
+
+        @Override
+        public Ast visitReturn(AstArena arena, int node) {
+            return new Ast.Stmt.Return(optionalExpr(arena, arena.operand(node, 0)));
+        }
+
+        @Override
+        public Ast visitExpression(AstArena arena, int node) {
+            return new Ast.Stmt.Expression(expr(arena, arena.operand(node, 0)));
+        }
+
+        @Override
+        public Ast visitAssignment(AstArena arena, int node) {
+            return new Ast.Stmt.Assignment(expr(arena, arena.operand(node, 0)), expr(arena, arena.operand(node, 1)));
+        }
+
+        @Override
+        public Ast visitLiteral(AstArena arena, int node) {
+            return new Ast.Expr.Literal(arena.constant(arena.operand(node, 0)));
+        }
+
+        @Override
+        public Ast visitGroup(AstArena arena, int node) {
+            return new Ast.Expr.Group(expr(arena, arena.operand(node, 0)));
+        }
+
+        @Override
+        public Ast visitBinary(AstArena arena, int node) {
+            return new Ast.Expr.Binary(
+                arena.string(arena.operand(node, 0)),
+                expr(arena, arena.operand(node, 1)),
+                expr(arena, arena.operand(node, 2))
+            );
+        }
+
+        @Override
+        public Ast visitVariable(AstArena arena, int node) {
+            return new Ast.Expr.Variable(arena.string(arena.operand(node, 0)));
+        }
+
+        @Override
+        public Ast visitProperty(AstArena arena, int node) {
+            return new Ast.Expr.Property(expr(arena, arena.operand(node, 0)), arena.string(arena.operand(node, 1)));
+        }
+
+        @Override
+        public Ast visitFunction(AstArena arena, int node) {
+            return new Ast.Expr.Function(arena.string(arena.operand(node, 0)), exprs(arena, node, 1));
+        }
+
+        @Override
+        public Ast visitMethod(AstArena arena, int node) {
+            return new Ast.Expr.Method(
+                expr(arena, arena.operand(node, 0)),
+                arena.string(arena.operand(node, 1)),
+                exprs(arena, node, 2)
+            );
+        }
+
+        @Override
+        public Ast visitObject(AstArena arena, int node) {
+            var methodStart = 2 + arena.operand(node, 1);
+            var fields = new Ast.Stmt.Let[methodStart - 2];
+            for (int i = 0; i < fields.length; i++) {
+                fields[i] = (Ast.Stmt.Let) arena.accept(this, arena.operand(node, 2 + i));
+            }
+            var methods = new Ast.Stmt.Def[arena.operands(node) - methodStart];
+            for (int i = 0; i < methods.length; i++) {
+                methods[i] = (Ast.Stmt.Def) arena.accept(this, arena.operand(node, methodStart + i));
+            }
+            return new Ast.Expr.ObjectExpr(optionalString(arena, arena.operand(node, 0)), List.of(fields), List.of(methods));
+        }
+
+        private List<Ast.Stmt> stmts(AstArena arena, int node, int start, int end) {
+            var statements = new Ast.Stmt[end - start];
+            for (int i = 0; i < statements.length; i++) {
+                statements[i] = (Ast.Stmt) arena.accept(this, arena.operand(node, start + i));
+            }
+            return List.of(statements);
+        }
+
+        private List<Ast.Expr> exprs(AstArena arena, int node, int start) {
+            var expressions = new Ast.Expr[arena.operands(node) - start];
+            for (int i = 0; i < expressions.length; i++) {
+                expressions[i] = expr(arena, arena.operand(node, start + i));
+            }
+            return List.of(expressions);
+        }
+
+        private Ast.Expr expr(AstArena arena, int node) {
+            return (Ast.Expr) arena.accept(this, node);
+        }
+
+        private Optional<Ast.Expr> optionalExpr(AstArena arena, int node) {
+            return node == -1 ? Optional.empty() : Optional.of(expr(arena, node));
+        }
+
+        private Optional<String> optionalString(AstArena arena, int id) {
+            return Optional.ofNullable(arena.string(id));
+        }
+
+    }
+
+}
@@ -0,0 +1,112 @@
+package plc.project.parser;
+
+import plc.project.lexer.LexException;
+import plc.project.lexer.Lexer;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Optional;
+
+/**
+ * An on-disk cache of parsed sources, so unchanged scripts are loaded with
+ * {@link AstCodec#decode} rather than lexed and parsed on every run.
+ *
+ * <p>Entries are files in the cache directory named by the SHA-256 hash of
+ * the source, so a changed source is simply a miss and entries never need to
+ * be invalidated. Entries from a different {@link AstCodec#VERSION} or which
+ * can't be decoded are also misses, and are replaced the next time the
+ * source is parsed.
+ */
+public final class AstCache {
+
+    private final Path directory;
+
+    public AstCache(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Returns the cached AST for the source, lexing and parsing it (and
+     * storing the result) on a miss. The cache is best-effort, so an entry
+     * that can't be read or written is treated as a miss rather than an
+     * error.
+     */
+    public Ast.Source parse(String source) throws LexException, ParseException {
+        try {
+            var cached = load(source);
+            if (cached.isPresent()) {
+                return cached.get();
+            }
+        } catch (IOException ignored) {}
+        var ast = (Ast.Source) new Parser(new Lexer(source).lexBuffer()).parse("source");
+        try {
+            store(source, ast);
+        } catch (IOException ignored) {}
+        return ast;
+    }
+
+    /**
+     * Returns the cached AST for the source, or empty if there's no entry or
+     * it can't be decoded.
+     */
+    public Optional<Ast.Source> load(String source) throws IOException {
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(path(source));
+        } catch (NoSuchFileException e) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(AstCodec.decode(bytes));
+        } catch (IllegalArgumentException | StackOverflowError e) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Stores the AST for the source, replacing any existing entry. The entry
+     * is written to a temporary file first and then moved into place, so
+     * concurrent runs never read a partially written entry. ASTs too deeply
+     * nested to encode are not stored.
+     */
+    public void store(String source, Ast.Source ast) throws IOException {
+        byte[] bytes;
+        try {
+            bytes = AstCodec.encode(ast);
+        } catch (StackOverflowError e) {
+            return;
+        }
+        Files.createDirectories(directory);
+        var temp = Files.createTempFile(directory, "ast", ".tmp");
+        try {
+            Files.write(temp, bytes);
+            Files.move(temp, path(source), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Returns the path of the entry for the source.
+     */
+    public Path path(String source) {
+        return directory.resolve(hash(source) + ".ast");
+    }
+
+    private static String hash(String source) {
+        try {
+            var digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(source.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e); //SHA-256 is required on every JVM
+        }
+    }
+
+}
@@ -0,0 +1,523 @@
+package plc.project.parser;
+
+import com.google.common.base.Preconditions;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * A compact binary encoding of {@link Ast.Source} trees, used by
+ * {@link AstCache} to load a previously parsed source without lexing or
+ * parsing it again.
+ *
+ * <p>The encoding is a header (magic and {@link #VERSION}), a table of the
+ * distinct Strings in the tree (names, types, and string literals), and the
+ * nodes in pre-order as a tag byte followed by their components. Strings,
+ * list sizes, and small integers are written as varints, so most nodes take
+ * only a few bytes. Since each String is decoded once, decoded names share a
+ * single instance per distinct name like those from the parser.
+ *
+ * <p>Spans are not encoded, so a decoded tree has no {@link SpanTable}.
+ */
+public final class AstCodec {
+
+    private static final int MAGIC = 0x504C4341; //"PLCA"
+
+    /**
+     * The version of the encoding, to be incremented whenever the encoding
+     * (or the Ast records) change so stale cache entries are not decoded.
+     */
+    public static final int VERSION = 1;
+
+    private static final byte SOURCE = 0;
+    private static final byte LET = 1;
+    private static final byte DEF = 2;
+    private static final byte IF = 3;
+    private static final byte FOR = 4;
+    private static final byte RETURN = 5;
+    private static final byte EXPRESSION = 6;
+    private static final byte ASSIGNMENT = 7;
+    private static final byte NIL = 8;
+    private static final byte TRUE = 9;
+    private static final byte FALSE = 10;
+    private static final byte INTEGER = 11;
+    private static final byte BIG_INTEGER = 12;
+    private static final byte DECIMAL = 13;
+    private static final byte CHARACTER = 14;
+    private static final byte STRING = 15;
+    private static final byte GROUP = 16;
+    private static final byte BINARY = 17;
+    private static final byte VARIABLE = 18;
+    private static final byte PROPERTY = 19;
+    private static final byte FUNCTION = 20;
+    private static final byte METHOD = 21;
+    private static final byte OBJECT = 22;
+
+    private AstCodec() {}
+
+    /**
+     * Encodes the tree, which must only contain literals created by the
+     * parser (null, Boolean, BigInteger, BigDecimal, Character, and String).
+     * Lazily parsed DEF bodies are parsed while encoding, throwing an
+     * {@link UncheckedParseException} if one is invalid.
+     */
+    public static byte[] encode(Ast.Source ast) {
+        var encoder = new Encoder();
+        encoder.encode(ast);
+        var output = new Output(encoder.nodes.size + 16 * encoder.strings.size() + 16);
+        output.writeInt(MAGIC);
+        output.writeVarint(VERSION);
+        output.writeVarint(encoder.strings.size());
+        for (var string : encoder.strings.keySet()) {
+            var bytes = string.getBytes(StandardCharsets.UTF_8);
+            output.writeVarint(bytes.length);
+            output.write(bytes, 0, bytes.length);
+        }
+        output.write(encoder.nodes.bytes, 0, encoder.nodes.size);
+        return Arrays.copyOf(output.bytes, output.size);
+    }
+
+    /**
+     * Decodes a tree encoded by {@link #encode}, throwing an
+     * {@link IllegalArgumentException} if the bytes are malformed or from a
+     * different {@link #VERSION}.
+     */
+    public static Ast.Source decode(byte[] bytes) {
+        var input = new Input(bytes);
+        try {
+            Preconditions.checkArgument(input.readInt() == MAGIC, "Not an encoded AST.");
+            var version = input.readVarint();
+            Preconditions.checkArgument(version == VERSION, "Unsupported AST encoding version %s.", version);
+            var count = input.readVarint();
+            input.require(count);
+            var strings = new String[count];
+            for (int i = 0; i < strings.length; i++) {
+                var length = input.readVarint();
+                input.require(length);
+                strings[i] = new String(bytes, input.position, length, StandardCharsets.UTF_8);
+                input.position += length;
+            }
+            var ast = new Decoder(input, strings).decodeSource();
+            Preconditions.checkArgument(input.position == bytes.length, "Unexpected bytes after the AST.");
+            return ast;
+        } catch (IndexOutOfBoundsException | ClassCastException e) {
+            throw new IllegalArgumentException("Malformed AST encoding.", e);
+        }
+    }
+
+    private static final class Encoder {
+
+        private final Map<String, Integer> strings = new LinkedHashMap<>();
+        private final Output nodes = new Output(256);
+
+        private void encode(Ast.Source ast) {
+            nodes.write(SOURCE);
+            encodeStmts(ast.statements());
+        }
+
+        private void encodeStmts(List<? extends Ast.Stmt> statements) {
+            nodes.writeVarint(statements.size());
+            for (var statement : statements) {
+                encodeStmt(statement);
+            }
+        }
+
+        private void encodeExprs(List<Ast.Expr> expressions) {
+            nodes.writeVarint(expressions.size());
+            for (var expression : expressions) {
+                encodeExpr(expression);
+            }
+        }
+
+        private void encodeStmt(Ast.Stmt ast) {
+            switch (ast) {
+                case Ast.Stmt.Let stmt -> {
+                    nodes.write(LET);
+                    encodeString(stmt.name());
+                    encodeOptionalString(stmt.type());
+                    encodeOptionalExpr(stmt.value());
+                }
+                case Ast.Stmt.Def stmt -> {
+                    nodes.write(DEF);
+                    encodeString(stmt.name());
+                    nodes.writeVarint(stmt.parameters().size());
+                    for (int i = 0; i < stmt.parameters().size(); i++) {
+                        encodeString(stmt.parameters().get(i));
+                        encodeOptionalString(stmt.parameterTypes().get(i));
+                    }
+                    encodeOptionalString(stmt.returnType());
+                    encodeStmts(stmt.body());
+                }
+                case Ast.Stmt.If stmt -> {
+                    nodes.write(IF);
+                    encodeExpr(stmt.condition());
+                    encodeStmts(stmt.thenBody());
+                    encodeStmts(stmt.elseBody());
+                }
+                case Ast.Stmt.For stmt -> {
+                    nodes.write(FOR);
+                    encodeString(stmt.name());
+                    encodeExpr(stmt.expression());
+                    encodeStmts(stmt.body());
+                }
+                case Ast.Stmt.Return stmt -> {
+                    nodes.write(RETURN);
+                    encodeOptionalExpr(stmt.value());
+                }
+                case Ast.Stmt.Expression stmt -> {
+                    nodes.write(EXPRESSION);
+                    encodeExpr(stmt.expression());
+                }
+                case Ast.Stmt.Assignment stmt -> {
+                    nodes.write(ASSIGNMENT);
+                    encodeExpr(stmt.expression());
+                    encodeExpr(stmt.value());
+                }
+            }
+        }
+
+        private void encodeExpr(Ast.Expr ast) {
+            switch (ast) {
+                case Ast.Expr.Literal expr -> encodeLiteral(expr.value());
+                case Ast.Expr.Group expr -> {
+                    nodes.write(GROUP);
+                    encodeExpr(expr.expression());
+                }
+                case Ast.Expr.Binary expr -> {
+                    nodes.write(BINARY);
+                    encodeString(expr.operator());
+                    encodeExpr(expr.left());
+                    encodeExpr(expr.right());
+                }
+                case Ast.Expr.Variable expr -> {
+                    nodes.write(VARIABLE);
+                    encodeString(expr.name());
+                }
+                case Ast.Expr.Property expr -> {
+                    nodes.write(PROPERTY);
+                    encodeExpr(expr.receiver());
+                    encodeString(expr.name());
+                }
+                case Ast.Expr.Function expr -> {
+                    nodes.write(FUNCTION);
+                    encodeString(expr.name());
+                    encodeExprs(expr.arguments());
+                }
+                case Ast.Expr.Method expr -> {
+                    nodes.write(METHOD);
+                    encodeExpr(expr.receiver());
+                    encodeString(expr.name());
+                    encodeExprs(expr.arguments());
+                }
+                case Ast.Expr.ObjectExpr expr -> {
+                    nodes.write(OBJECT);
+                    encodeOptionalString(expr.name());
+                    encodeStmts(expr.fields());
+                    encodeStmts(expr.methods());
+                }
+            }
+        }
+
+        private void encodeLiteral(Object value) {
+            switch (value) {
+                case null -> nodes.write(NIL);
+                case Boolean bool -> nodes.write(bool ? TRUE : FALSE);
+                case BigInteger integer -> {
+                    if (integer.bitLength() < 64) {
+                        nodes.write(INTEGER);
+                        nodes.writeVarlong(integer.longValue());
+                    } else {
+                        nodes.write(BIG_INTEGER);
+                        encodeBytes(integer.toByteArray());
+                    }
+                }
+                case BigDecimal decimal -> {
+                    nodes.write(DECIMAL);
+                    nodes.writeVarlong(decimal.scale());
+                    encodeBytes(decimal.unscaledValue().toByteArray());
+                }
+                case Character character -> {
+                    nodes.write(CHARACTER);
+                    nodes.writeVarint(character);
+                }
+                case String string -> {
+                    nodes.write(STRING);
+                    encodeString(string);
+                }
+                default -> throw new IllegalArgumentException("Unsupported literal " + value.getClass().getSimpleName() + ".");
+            }
+        }
+
+        private void encodeBytes(byte[] bytes) {
+            nodes.writeVarint(bytes.length);
+            nodes.write(bytes, 0, bytes.length);
+        }
+
+        private void encodeString(String string) {
+            var id = strings.computeIfAbsent(string, s -> strings.size());
+            nodes.writeVarint(id);
+        }
+
+        /**
+         * Writes 0 for empty, or the string id + 1.
+         */
+        private void encodeOptionalString(Optional<String> string) {
+            if (string.isPresent()) {
+                var id = strings.computeIfAbsent(string.get(), s -> strings.size());
+                nodes.writeVarint(id + 1);
+            } else {
+                nodes.writeVarint(0);
+            }
+        }
+
+        private void encodeOptionalExpr(Optional<Ast.Expr> expression) {
+            nodes.write((byte) (expression.isPresent() ? 1 : 0));
+            expression.ifPresent(this::encodeExpr);
+        }
+
+    }
+
+    private static final class Decoder {
+
+        private final Input input;
+        private final String[] strings;
+
+        private Decoder(Input input, String[] strings) {
+            this.input = input;
+            this.strings = strings;
+        }
+
+        private Ast.Source decodeSource() {
+            Preconditions.checkArgument(input.read() == SOURCE, "Expected a source.");
+            return new Ast.Source(decodeStmts());
+        }
+
+        private List<Ast.Stmt> decodeStmts() {
+            var statements = new Ast.Stmt[decodeSize()];
+            for (int i = 0; i < statements.length; i++) {
+                statements[i] = decodeStmt();
+            }
+            return List.of(statements);
+        }
+
+        private List<Ast.Expr> decodeExprs() {
+            var expressions = new Ast.Expr[decodeSize()];
+            for (int i = 0; i < expressions.length; i++) {
+                expressions[i] = decodeExpr(input.read());
+            }
+            return List.of(expressions);
+        }
+
+        private Ast.Stmt decodeStmt() {
+            var tag = input.read();
+            return switch (tag) {
+                case LET -> new Ast.Stmt.Let(decodeString(), decodeOptionalString(), decodeOptionalExpr());
+                case DEF -> {
+                    var name = decodeString();
+                    var size = decodeSize();
+                    var parameters = new ArrayList<String>(size);
+                    var parameterTypes = new ArrayList<Optional<String>>(size);
+                    for (int i = 0; i < size; i++) {
+                        parameters.add(decodeString());
+                        parameterTypes.add(decodeOptionalString());
+                    }
+                    var returnType = decodeOptionalString();
+                    yield new Ast.Stmt.Def(name, List.copyOf(parameters), List.copyOf(parameterTypes), returnType, decodeStmts());
+                }
+                case IF -> new Ast.Stmt.If(decodeExpr(input.read()), decodeStmts(), decodeStmts());
+                case FOR -> new Ast.Stmt.For(decodeString(), decodeExpr(input.read()), decodeStmts());
+                case RETURN -> new Ast.Stmt.Return(decodeOptionalExpr());
+                case EXPRESSION -> new Ast.Stmt.Expression(decodeExpr(input.read()));
+                case ASSIGNMENT -> new Ast.Stmt.Assignment(decodeExpr(input.read()), decodeExpr(input.read()));
+                default -> throw new IllegalArgumentException("Unexpected statement tag " + tag + ".");
+            };
+        }
+
+        private Ast.Expr decodeExpr(byte tag) {
+            return switch (tag) {
+                case NIL -> new Ast.Expr.Literal(null);
+                case TRUE -> new Ast.Expr.Literal(Boolean.TRUE);
+                case FALSE -> new Ast.Expr.Literal(Boolean.FALSE);
+                case INTEGER -> new Ast.Expr.Literal(BigInteger.valueOf(input.readVarlong()));
+                case BIG_INTEGER -> new Ast.Expr.Literal(new BigInteger(decodeBytes()));
+                case DECIMAL -> {
+                    var scale = input.readVarlong();
+                    Preconditions.checkArgument(scale == (int) scale, "Invalid decimal scale %s.", scale);
+                    yield new Ast.Expr.Literal(new BigDecimal(new BigInteger(decodeBytes()), (int) scale));
+                }
+                case CHARACTER -> new Ast.Expr.Literal((char) input.readVarint());
+                case STRING -> new Ast.Expr.Literal(decodeString());
+                case GROUP -> new Ast.Expr.Group(decodeExpr(input.read()));
+                case BINARY -> new Ast.Expr.Binary(decodeString(), decodeExpr(input.read()), decodeExpr(input.read()));
+                case VARIABLE -> new Ast.Expr.Variable(decodeString());
+                case PROPERTY -> new Ast.Expr.Property(decodeExpr(input.read()), decodeString());
+                case FUNCTION -> new Ast.Expr.Function(decodeString(), decodeExprs());
+                case METHOD -> new Ast.Expr.Method(decodeExpr(input.read()), decodeString(), decodeExprs());
+                case OBJECT -> {
+                    var name = decodeOptionalString();
+                    var fields = new Ast.Stmt.Let[decodeSize()];
+                    for (int i = 0; i < fields.length; i++) {
+                        fields[i] = (Ast.Stmt.Let) decodeStmt();
+                    }
+                    var methods = new Ast.Stmt.Def[decodeSize()];
+                    for (int i = 0; i < methods.length; i++) {
+                        methods[i] = (Ast.Stmt.Def) decodeStmt();
+                    }
+                    yield new Ast.Expr.ObjectExpr(name, List.of(fields), List.of(methods));
+                }
+                default -> throw new IllegalArgumentException("Unexpected expression tag " + tag + ".");
+            };
+        }
+
+        private byte[] decodeBytes() {
+            var length = decodeSize();
+            input.require(length);
+            var bytes = Arrays.copyOfRange(input.bytes, input.position, input.position + length);
+            input.position += length;
+            return bytes;
+        }
+
+        /**
+         * Reads a list size, which can't exceed the remaining bytes since each
+         * element takes at least one (so malformed sizes fail fast).
+         */
+        private int decodeSize() {
+            var size = input.readVarint();
+            input.require(size);
+            return size;
+        }
+
+        private String decodeString() {
+            return strings[input.readVarint()];
+        }
+
+        private Optional<String> decodeOptionalString() {
+            var id = input.readVarint();
+            return id == 0 ? Optional.empty() : Optional.of(strings[id - 1]);
+        }
+
+        private Optional<Ast.Expr> decodeOptionalExpr() {
+            return switch (input.read()) {
+                case 0 -> Optional.empty();
+                case 1 -> Optional.of(decodeExpr(input.read()));
+                default -> throw new IllegalArgumentException("Malformed optional expression.");
+            };
+        }
+
+    }
+
+    private static final class Output {
+
+        private byte[] bytes;
+        private int size = 0;
+
+        private Output(int capacity) {
+            this.bytes = new byte[capacity];
+        }
+
+        private void write(byte value) {
+            if (size == bytes.length) {
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            }
+            bytes[size++] = value;
+        }
+
+        private void write(byte[] values, int offset, int length) {
+            if (size + length > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + length));
+            }
+            System.arraycopy(values, offset, bytes, size, length);
+            size += length;
+        }
+
+        private void writeInt(int value) {
+            write((byte) (value >>> 24));
+            write((byte) (value >>> 16));
+            write((byte) (value >>> 8));
+            write((byte) value);
+        }
+
+        /**
+         * Writes an unsigned varint, 7 bits per byte with the high bit set on
+         * all but the last byte.
+         */
+        private void writeVarint(int value) {
+            while ((value & ~0x7F) != 0) {
+                write((byte) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            write((byte) value);
+        }
+
+        /**
+         * Writes a signed value as a zigzag varint, so small negative values
+         * are also short.
+         */
+        private void writeVarlong(long value) {
+            var zigzag = (value << 1) ^ (value >> 63);
+            while ((zigzag & ~0x7FL) != 0) {
+                write((byte) ((zigzag & 0x7F) | 0x80));
+                zigzag >>>= 7;
+            }
+            write((byte) zigzag);
+        }
+
+    }
+
+    private static final class Input {
+
+        private final byte[] bytes;
+        private int position = 0;
+
+        private Input(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        private void require(int length) {
+            Preconditions.checkArgument(length >= 0 && length <= bytes.length - position, "Unexpected end of the AST.");
+        }
+
+        private byte read() {
+            require(1);
+            return bytes[position++];
+        }
+
+        private int readInt() {
+            return (read() & 0xFF) << 24 | (read() & 0xFF) << 16 | (read() & 0xFF) << 8 | (read() & 0xFF);
+        }
+
+        private int readVarint() {
+            var value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                var b = read();
+                value |= (b & 0x7F) << shift;
+                if (b >= 0) {
+                    Preconditions.checkArgument(value >= 0, "Malformed varint.");
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Malformed varint.");
+        }
+
+        private long readVarlong() {
+            var zigzag = 0L;
+            for (int shift = 0; shift < 70; shift += 7) {
+                var b = read();
+                zigzag |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return (zigzag >>> 1) ^ -(zigzag & 1);
+                }
+            }
+            throw new IllegalArgumentException("Malformed varint.");
+        }
+
+    }
+
+}
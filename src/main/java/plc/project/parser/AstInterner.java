@@ -0,0 +1,227 @@
+package plc.project.parser;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+/**
+ * Deduplicates structurally equal subtrees (hash-consing), so repeated
+ * expressions like the same {@link Ast.Expr.Variable} or
+ * {@link Ast.Expr.Literal} share a single instance, along with equal
+ * literal values, names, and the Lists and Optionals holding them.
+ *
+ * <p>Subtrees are interned bottom-up, so the children of a node are already
+ * canonical and nodes are compared by the identity of their components
+ * rather than with the (recursive) record equals. Each node is therefore
+ * only hashed once.
+ *
+ * <p>The same interner can be used for several trees to share subtrees
+ * between them, and holds every canonical node until it is discarded.
+ * Since a shared node has several positions, the {@link SpanTable} of the
+ * parser only has the span of one of them (if any) after interning.
+ */
+public final class AstInterner {
+
+    private final Map<Object, Object> values = new HashMap<>(); //by equals
+    private final Map<Key, Object> nodes = new HashMap<>(); //by identity of components
+
+    /**
+     * Components of a node (or List/Optional), compared by identity.
+     */
+    private record Key(Class<?> type, Object[] components) {
+
+        @Override
+        public boolean equals(Object object) {
+            if (!(object instanceof Key key) || type != key.type || components.length != key.components.length) {
+                return false;
+            }
+            for (int i = 0; i < components.length; i++) {
+                if (components[i] != key.components[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            var hash = type.hashCode();
+            for (var component : components) {
+                hash = 31 * hash + System.identityHashCode(component);
+            }
+            return hash;
+        }
+
+    }
+
+    /**
+     * Returns the canonical tree equal to ast. Lazily parsed DEF bodies are
+     * parsed while interning, throwing an {@link UncheckedParseException} if
+     * one is invalid.
+     */
+    @SuppressWarnings("unchecked")
+    public <T extends Ast> T intern(T ast) {
+        return (T) node(ast);
+    }
+
+    /**
+     * Returns the number of canonical nodes, Lists, Optionals, and values.
+     */
+    public int size() {
+        return nodes.size() + values.size();
+    }
+
+    private Ast node(Ast ast) {
+        return switch (ast) {
+            case Ast.Source source -> {
+                var statements = list(source.statements());
+                yield canonical(() -> new Ast.Source(statements), Ast.Source.class, statements);
+            }
+            case Ast.Stmt.Let stmt -> {
+                var name = value(stmt.name());
+                var type = optionalName(stmt.type());
+                var value = optional(stmt.value());
+                yield canonical(() -> new Ast.Stmt.Let(name, type, value), Ast.Stmt.Let.class, name, type, value);
+            }
+            case Ast.Stmt.Def stmt -> {
+                var name = value(stmt.name());
+                var parameters = names(stmt.parameters());
+                var parameterTypes = optionalNames(stmt.parameterTypes());
+                var returnType = optionalName(stmt.returnType());
+                var body = list(stmt.body());
+                yield canonical(() -> new Ast.Stmt.Def(name, parameters, parameterTypes, returnType, body),
+                    Ast.Stmt.Def.class, name, parameters, parameterTypes, returnType, body);
+            }
+            case Ast.Stmt.If stmt -> {
+                var condition = node(stmt.condition());
+                var thenBody = list(stmt.thenBody());
+                var elseBody = list(stmt.elseBody());
+                yield canonical(() -> new Ast.Stmt.If((Ast.Expr) condition, thenBody, elseBody), Ast.Stmt.If.class, condition, thenBody, elseBody);
+            }
+            case Ast.Stmt.For stmt -> {
+                var name = value(stmt.name());
+                var expression = node(stmt.expression());
+                var body = list(stmt.body());
+                yield canonical(() -> new Ast.Stmt.For(name, (Ast.Expr) expression, body), Ast.Stmt.For.class, name, expression, body);
+            }
+            case Ast.Stmt.Return stmt -> {
+                var value = optional(stmt.value());
+                yield canonical(() -> new Ast.Stmt.Return(value), Ast.Stmt.Return.class, value);
+            }
+            case Ast.Stmt.Expression stmt -> {
+                var expression = node(stmt.expression());
+                yield canonical(() -> new Ast.Stmt.Expression((Ast.Expr) expression), Ast.Stmt.Expression.class, expression);
+            }
+            case Ast.Stmt.Assignment stmt -> {
+                var expression = node(stmt.expression());
+                var value = node(stmt.value());
+                yield canonical(() -> new Ast.Stmt.Assignment((Ast.Expr) expression, (Ast.Expr) value), Ast.Stmt.Assignment.class, expression, value);
+            }
+            case Ast.Expr.Literal expr -> {
+                var value = value(expr.value());
+                yield canonical(() -> new Ast.Expr.Literal(value), Ast.Expr.Literal.class, value);
+            }
+            case Ast.Expr.Group expr -> {
+                var expression = node(expr.expression());
+                yield canonical(() -> new Ast.Expr.Group((Ast.Expr) expression), Ast.Expr.Group.class, expression);
+            }
+            case Ast.Expr.Binary expr -> {
+                var operator = value(expr.operator());
+                var left = node(expr.left());
+                var right = node(expr.right());
+                yield canonical(() -> new Ast.Expr.Binary(operator, (Ast.Expr) left, (Ast.Expr) right), Ast.Expr.Binary.class, operator, left, right);
+            }
+            case Ast.Expr.Variable expr -> {
+                var name = value(expr.name());
+                yield canonical(() -> new Ast.Expr.Variable(name), Ast.Expr.Variable.class, name);
+            }
+            case Ast.Expr.Property expr -> {
+                var receiver = node(expr.receiver());
+                var name = value(expr.name());
+                yield canonical(() -> new Ast.Expr.Property((Ast.Expr) receiver, name), Ast.Expr.Property.class, receiver, name);
+            }
+            case Ast.Expr.Function expr -> {
+                var name = value(expr.name());
+                var arguments = list(expr.arguments());
+                yield canonical(() -> new Ast.Expr.Function(name, arguments), Ast.Expr.Function.class, name, arguments);
+            }
+            case Ast.Expr.Method expr -> {
+                var receiver = node(expr.receiver());
+                var name = value(expr.name());
+                var arguments = list(expr.arguments());
+                yield canonical(() -> new Ast.Expr.Method((Ast.Expr) receiver, name, arguments), Ast.Expr.Method.class, receiver, name, arguments);
+            }
+            case Ast.Expr.ObjectExpr expr -> {
+                var name = optionalName(expr.name());
+                var fields = list(expr.fields());
+                var methods = list(expr.methods());
+                yield canonical(() -> new Ast.Expr.ObjectExpr(name, fields, methods), Ast.Expr.ObjectExpr.class, name, fields, methods);
+            }
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T extends Ast> List<T> list(List<T> asts) {
+        var elements = new Object[asts.size()];
+        for (int i = 0; i < elements.length; i++) {
+            elements[i] = node(asts.get(i));
+        }
+        return canonical(() -> (List<T>) (List<?>) List.of(elements), List.class, elements);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T extends Ast> Optional<T> optional(Optional<T> ast) {
+        if (ast.isEmpty()) {
+            return ast;
+        }
+        var value = (T) node(ast.get());
+        return canonical(() -> Optional.of(value), Optional.class, value);
+    }
+
+    private List<String> names(List<String> names) {
+        var elements = new String[names.size()];
+        for (int i = 0; i < elements.length; i++) {
+            elements[i] = value(names.get(i));
+        }
+        return canonical(() -> List.of(elements), List.class, (Object[]) elements);
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Optional<String>> optionalNames(List<Optional<String>> names) {
+        var elements = new Optional<?>[names.size()];
+        for (int i = 0; i < elements.length; i++) {
+            elements[i] = optionalName(names.get(i));
+        }
+        return canonical(() -> (List<Optional<String>>) (List<?>) List.of(elements), List.class, (Object[]) elements);
+    }
+
+    private Optional<String> optionalName(Optional<String> name) {
+        if (name.isEmpty()) {
+            return name;
+        }
+        var value = value(name.get());
+        return canonical(() -> Optional.of(value), Optional.class, value);
+    }
+
+    /**
+     * Returns the canonical value equal to value, e.g. a literal or name.
+     */
+    @SuppressWarnings("unchecked")
+    private <T> T value(T value) {
+        return value == null ? null : (T) values.computeIfAbsent(value, v -> v);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T canonical(Supplier<T> factory, Class<?> type, Object... components) {
+        var key = new Key(type, components);
+        var node = nodes.get(key);
+        if (node == null) {
+            node = factory.get();
+            nodes.put(key, node);
+        }
+        return (T) node;
+    }
+
+}
@@ -1,68 +1,336 @@
 package plc.project.parser;
 
 import com.google.common.base.Preconditions;
+import plc.project.lexer.LexException;
+import plc.project.lexer.Span;
+import plc.project.lexer.Keyword;
+import plc.project.lexer.Lexer;
+import plc.project.lexer.SymbolTable;
 import plc.project.lexer.Token;
+import plc.project.lexer.TokenBuffer;
 
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 /**
  * This style of parser is called <em>recursive descent</em>. Each rule in our
  * grammar has dedicated function, and references to other rules correspond to
  * calling that function. Recursive rules are therefore supported by actual
  * recursive calls, while operator precedence is encoded via the grammar.
+ * The exception is binary expressions, where the rules for each precedence
+ * level are parsed by a single method using a table of operators (see
+ * {@link #parseBinaryExpr}) rather than a call per level for every operand.
  *
  * <p>The parser has a similar architecture to the lexer, just with
  * {@link Token}s instead of characters. As before, {@link TokenStream#peek} and
  * {@link TokenStream#match} help with traversing the token stream. Instead of
  * emitting tokens, you will instead need to extract the literal value via
- * {@link TokenStream#get} to be added to the relevant AST.
+ * {@link TokenStream#literal} to be added to the relevant AST.
+ *
+ * <p>Every rule is chosen with a single token of lookahead and the parser
+ * never backtracks (e.g. an expression statement parses the expression once
+ * before checking for '='), so each rule is applied at most once per token
+ * and parsing is linear without memoizing results (packrat parsing).
+ *
+ * <p>Tokens are read from a {@link TokenBuffer}, so keywords and operators are
+ * compared directly against the source and literal Strings are only created
+ * for values that end up in the AST.
+ *
+ * <p>Alternatively, tokens can be pulled from a streaming {@link Lexer}, in
+ * which case only a small batch of lookahead tokens is kept in memory.
+ *
+ * <p>The source span of each AST node is recorded in a {@link SpanTable}
+ * (see {@link #spans()}), except when streaming as tokens are no longer
+ * offsets into the source.
+ *
+ * <p>Top-level statements can also be parsed one at a time with
+ * {@link #statements()}, so they can be evaluated as soon as they are parsed.
+ *
+ * <p>Large sources can be parsed with the bodies of top-level DEF statements
+ * parsed in parallel, see {@link #parseParallel}, or with DEF bodies only
+ * parsed once they are used, see {@link #setLazyBodies}.
+ *
+ * <p>For deeply nested input (e.g. generated code), expressions can instead be
+ * parsed with an explicit stack and a depth limit, see {@link #setMaxDepth}.
  */
 public final class Parser {
 
+    private static final int LOGICAL = 1;
+    private static final int COMPARISON = 2;
+    private static final int ADDITIVE = 3;
+    private static final int MULTIPLICATIVE = 4;
+
+    /**
+     * Binary operators with their precedence, keyed by their first character
+     * (plus 128 if the second is '=') for operator tokens, which are at most
+     * comparisons followed by '=', and by symbol id for keywords.
+     */
+    private static final Operator[] OPERATORS = new Operator[256];
+    private static final int KEYWORDS = Keyword.values().length;
+    private static final Operator[] KEYWORD_OPERATORS = new Operator[KEYWORDS];
+
+    private record Operator(String literal, int precedence) {}
+
+    static {
+        for (var literal : List.of("<", "<=", ">", ">=", "==", "!=")) {
+            putOperator(literal, COMPARISON);
+        }
+        putOperator("+", ADDITIVE);
+        putOperator("-", ADDITIVE);
+        putOperator("*", MULTIPLICATIVE);
+        putOperator("/", MULTIPLICATIVE);
+        KEYWORD_OPERATORS[Keyword.AND.ordinal()] = new Operator("AND", LOGICAL);
+        KEYWORD_OPERATORS[Keyword.OR.ordinal()] = new Operator("OR", LOGICAL);
+    }
+
+    /**
+     * The minimum number of tokens in a DEF body for it to be parsed as a
+     * separate task by parseParallel, below which a task costs more than
+     * parsing it inline.
+     */
+    private static final int MIN_PARALLEL_BODY = 512;
+
+    private static void putOperator(String literal, int precedence) {
+        OPERATORS[literal.charAt(0) + (literal.length() == 2 ? 128 : 0)] = new Operator(literal, precedence);
+    }
+
     private final TokenStream tokens;
+    private final SpanTable spans;
+    private int maxDepth = 0; //0 for the recursive parser, see setMaxDepth
+    private int depth = 0; //groups, calls, and objects currently being parsed
+    private Parallel parallel; //while in parseParallel
+    private List<LazyBody> lazyBodies; //null unless lazy, shared with the parsers of the bodies
 
     public Parser(List<Token> tokens) {
+        this(TokenBuffer.of(tokens));
+    }
+
+    public Parser(TokenBuffer tokens) {
         this.tokens = new TokenStream(tokens);
+        this.spans = new SpanTable();
+    }
+
+    /**
+     * Parses the tokens in [start, limit) for a DEF body, see Parallel and
+     * LazyBody, recording spans into the given table.
+     */
+    private Parser(TokenBuffer tokens, int start, int limit, int maxDepth, SpanTable spans) {
+        this.tokens = new TokenStream(tokens, start, limit);
+        this.maxDepth = maxDepth;
+        this.spans = spans;
+    }
+
+    /**
+     * Parses tokens pulled from the lexer with bounded lookahead. Lexing
+     * errors are reported as a ParseException with the LexException message
+     * (including its index) and no token.
+     */
+    public Parser(Lexer lexer) {
+        this.tokens = new TokenStream(lexer);
+        this.spans = new SpanTable();
+    }
+
+    /**
+     * Returns the spans of the AST nodes parsed so far, which are offsets into
+     * the source of the {@link TokenBuffer} (mapped to lines with
+     * {@link TokenBuffer#lines()}).
+     */
+    public SpanTable spans() {
+        return spans;
+    }
+
+    /**
+     * Parses expressions with an explicit stack in heap memory instead of
+     * recursion, allowing at most maxDepth nested groups, function/method
+     * calls, and objects before throwing a ParseException. Statements are
+     * still parsed recursively, since they are only nested by blocks.
+     *
+     * <p>Either way, a {@link StackOverflowError} while parsing is reported
+     * as a ParseException at the next token.
+     */
+    public void setMaxDepth(int maxDepth) {
+        Preconditions.checkArgument(maxDepth > 0, "Invalid max depth %s.", maxDepth);
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * Records DEF bodies as token ranges instead of parsing them, which are
+     * only parsed once the body list is first accessed or by
+     * {@link #parseBodies()}. Bodies that are never accessed therefore cost
+     * a scan for their END instead of an AST. Note that the Evaluator doesn't
+     * evaluate DEF statements yet ({@code visit(Ast.Stmt.Def)} is still
+     * unsupported), so calling a function doesn't access its body either.
+     *
+     * <p>The body's END is found by matching DOs and ENDs (see
+     * {@link #parseParallel}), and bodies where DO or END may be used as
+     * identifiers are parsed as usual, so the AST is the same as with eager
+     * parsing. Bodies are parsed by the thread that first uses them, and
+     * share the parser's {@link SpanTable}.
+     *
+     * <p>Parse errors in bodies are only reported once they are parsed, as
+     * an {@link UncheckedParseException} wrapping the same ParseException as
+     * eager parsing from any method of the body list (get, size, iteration,
+     * and through {@code equals} and {@code toString} of the AST).
+     * Call parseBodies, which throws the ParseException instead, before
+     * passing the AST to code that doesn't handle this exception, such as
+     * the Evaluator, unless the source is known to be valid.
+     */
+    public void setLazyBodies(boolean lazy) {
+        Preconditions.checkState(!tokens.streaming(), "Streaming input can't be parsed lazily.");
+        lazyBodies = lazy ? new ArrayList<>() : null;
+    }
+
+    /**
+     * Parses all DEF bodies recorded by lazy parsing (see
+     * {@link #setLazyBodies}), including the bodies they contain, throwing
+     * the first ParseException.
+     */
+    public void parseBodies() throws ParseException {
+        if (lazyBodies == null) {
+            return;
+        }
+        for (int i = 0; i < lazyBodies.size(); i++) { //grows with nested bodies
+            lazyBodies.get(i).statements();
+        }
     }
 
     public Ast parse(String rule) throws ParseException {
-        var ast = switch (rule) {
-            case "source" -> parseSource();
-            case "stmt" -> parseStmt();
-            case "expr" -> parseExpr();
-            default -> throw new AssertionError(rule);
-        };
+        Ast ast;
+        try {
+            ast = switch (rule) {
+                case "source" -> parseSource();
+                case "stmt" -> parseStmt();
+                case "expr" -> parseExpr();
+                default -> throw new AssertionError(rule);
+            };
+        } catch (StackOverflowError e) {
+            throw nestedTooDeeply();
+        }
         if (tokens.has(0)) {
             throw new ParseException("Expected end of input.", tokens.getNext());
         }
         return ast;
     }
 
+    /**
+     * Parses the source like {@code parse("source")}, but with the bodies of
+     * top-level DEF statements parsed as separate tasks on the pool, which
+     * returns the same AST (and spans) or throws the same exception.
+     *
+     * <p>A pre-pass over the tokens matches each top-level DO with its END,
+     * since every block (DEF, IF, FOR, and OBJECT) has exactly one of each.
+     * Top-level statements are then parsed as usual, except that DEF bodies
+     * (of at least {@link #MIN_PARALLEL_BODY} tokens) are skipped to their
+     * END and parsed by a task with a parser limited to the body.
+     *
+     * <p>The matching can be wrong for (invalid or contrived) sources using
+     * DO/END as identifiers, so a task only succeeds if its body ends at the
+     * END it was given, in which case it parsed exactly what the sequential
+     * parser would have. If any task or the top-level parse fails, the source
+     * is parsed again sequentially, which also reports the first exception.
+     */
+    public Ast.Source parseParallel(ForkJoinPool pool) throws ParseException {
+        return parseParallel(pool, MIN_PARALLEL_BODY);
+    }
+
+    Ast.Source parseParallel(ForkJoinPool pool, int minBody) throws ParseException {
+        Preconditions.checkState(!tokens.streaming(), "Streaming input can't be parsed in parallel.");
+        Preconditions.checkState(tokens.position() == 0 && spans.size() == 0, "Parser has already been used.");
+        parallel = new Parallel(pool, minBody, tokens.findBlocks());
+        try {
+            var source = (Ast.Source) parse("source");
+            if (parallel.join()) {
+                return source;
+            }
+        } catch (ParseException e) {
+            parallel.cancel();
+        } finally {
+            parallel = null;
+        }
+        tokens.seek(0);
+        spans.clear();
+        depth = 0;
+        return (Ast.Source) parse("source");
+    }
+
+    /**
+     * Returns the top-level statements of the source (as in
+     * {@code parse("source")}), each parsed only once it is requested with
+     * {@link Iterator#next()}. Parse errors are thrown by {@code hasNext()}
+     * or {@code next()} as an {@link UncheckedParseException}.
+     *
+     * <p>Statements are no longer referenced by the parser once they are
+     * returned, unless their spans are recorded. For long scripts, parsing
+     * from a streaming {@link Lexer} avoids both, so neither the tokens nor
+     * the AST of the whole script are kept in memory.
+     */
+    public Iterator<Ast.Stmt> statements() {
+        return new Iterator<>() {
+
+            @Override
+            public boolean hasNext() {
+                try {
+                    return tokens.has(0);
+                } catch (ParseException e) {
+                    throw new UncheckedParseException(e);
+                }
+            }
+
+            @Override
+            public Ast.Stmt next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                try {
+                    try {
+                        return parseStmt();
+                    } catch (StackOverflowError e) {
+                        throw nestedTooDeeply();
+                    }
+                } catch (ParseException e) {
+                    throw new UncheckedParseException(e);
+                }
+            }
+
+        };
+    }
+
+    private ParseException nestedTooDeeply() throws ParseException {
+        return new ParseException("Input is nested too deeply.", tokens.getNext());
+    }
+
     private Ast.Source parseSource() throws ParseException {
+        var start = tokens.position();
         var statements = new ArrayList<Ast.Stmt>();
         while (tokens.has(0)) {
             statements.add(parseStmt());
         }
-        return new Ast.Source(statements);
+        return span(new Ast.Source(statements), start);
     }
 
     private Ast.Stmt parseStmt() throws ParseException {
         //stmt::= let_stmt | def_stmt | if_stmt | for_stmt | return_stmt | expression_or_assignment_stmt
-        if (tokens.peek("LET")){
+        if (tokens.peek(Keyword.LET)){
             return parseLetStmt();
         }
-        else if (tokens.peek("DEF")){
+        else if (tokens.peek(Keyword.DEF)){
             return parseDefStmt();
         }
-        else if (tokens.peek("IF")) {
+        else if (tokens.peek(Keyword.IF)) {
             return parseIfStmt();
-        } else if (tokens.peek("FOR")) {
+        } else if (tokens.peek(Keyword.FOR)) {
             return parseForStmt();
-        } else if (tokens.peek("RETURN")) {
+        } else if (tokens.peek(Keyword.RETURN)) {
             return parseReturnStmt();
         } else {
             return parseExpressionOrAssignmentStmt();
@@ -74,11 +342,12 @@ public final class Parser {
         //let_stmt ::= 'LET' identifier ('=' expr)? ';'
         //needs semicolon at the end
 
-        Preconditions.checkState(tokens.match("LET"));
+        var start = tokens.position();
+        Preconditions.checkState(tokens.match(Keyword.LET));
         if (!tokens.peek(Token.Type.IDENTIFIER)) {
             throw new ParseException("Should have something after LET", tokens.getNext());
         }
-        var name = tokens.get(0).literal();
+        var name = tokens.literal(0);
 
         tokens.match(Token.Type.IDENTIFIER);
 
@@ -89,18 +358,19 @@ public final class Parser {
         if (!tokens.match(";")) {
             throw new ParseException("need ';'", tokens.getNext());
         }
-        return new Ast.Stmt.Let(name, val);
+        return span(new Ast.Stmt.Let(name, val), start);
         //throw new UnsupportedOperationException("TODO"); //TODO
     }
 
     private Ast.Stmt parseDefStmt() throws ParseException {
 //def_stmt ::= 'DEF' identifier '(' (identifier (',' identifier)*)? ')' 'DO' stmt* 'END'
-        Preconditions.checkState(tokens.match("DEF"));
+        var start = tokens.position();
+        Preconditions.checkState(tokens.match(Keyword.DEF));
 
         if (!tokens.peek(Token.Type.IDENTIFIER)) {
             throw new ParseException("Missing name", tokens.getNext());
         }
-        var name = tokens.get(0).literal(); //identifier
+        var name = tokens.literal(0); //identifier
         tokens.match(Token.Type.IDENTIFIER);
 
         if (!tokens.match("(")) {
@@ -109,50 +379,82 @@ public final class Parser {
 
         var param = new ArrayList<String>(); // ["x","x"...]
         if (tokens.peek(Token.Type.IDENTIFIER)) { //checking parameters
-            param.add(tokens.get(0).literal());
+            param.add(tokens.literal(0));
 
             tokens.match(Token.Type.IDENTIFIER);
             while (tokens.match(",")) {
                 if (!tokens.peek(Token.Type.IDENTIFIER)) {
                     throw new ParseException("Need identifier after comma", tokens.getNext());
                 }
-                param.add(tokens.get(0).literal());
+                param.add(tokens.literal(0));
                 tokens.match(Token.Type.IDENTIFIER);
             }
         }
         if (!tokens.match(")")) {
             throw new ParseException("Need ')' after parameter list", tokens.getNext());
         }
-        if (!tokens.match("DO")) { //body
+        if (!tokens.match(Keyword.DO)) { //body
             throw new ParseException("need DO after header", tokens.getNext());
         }
-        var name2 = new ArrayList<Ast.Stmt>();
-        while (!tokens.peek("END")) {
+        var name2 = lazyBodies != null ? skipDefBody() : parseDefBody();
+        if (!tokens.match(Keyword.END)) {
+            throw new ParseException("Need end after everything", tokens.getNext());
+        }
+        return span(new Ast.Stmt.Def(name, param, name2), start);
+        //throw new UnsupportedOperationException("TODO"); //TODO
+    }
+
+    /**
+     * Parses the statements of a DEF body up to its END, unless the body is
+     * forked by parseParallel, in which case it is filled in once the task is
+     * joined and the stream is moved to the END.
+     */
+    private List<Ast.Stmt> parseDefBody() throws ParseException {
+        var body = new ArrayList<Ast.Stmt>();
+        if (parallel != null && depth == 0 && parallel.fork(body)) {
+            return body;
+        }
+        while (!tokens.peek(Keyword.END)) {
             if (!tokens.has(0)) {
                 throw new ParseException("no END", tokens.getNext());
             }
-            name2.add(parseStmt());
+            body.add(parseStmt());
         }
-        if (!tokens.match("END")) {
-            throw new ParseException("Need end after everything", tokens.getNext());
-        }
-        return new Ast.Stmt.Def(name, param, name2);
-        //throw new UnsupportedOperationException("TODO"); //TODO
+        return body;
+    }
+
+    /**
+     * Skips to the END matching the DEF's DO, returning a lazily parsed body
+     * (see setLazyBodies). If there is no matching END, or it can't be found
+     * reliably because DO/END may be used as identifiers, the body is parsed
+     * as usual.
+     */
+    private List<Ast.Stmt> skipDefBody() throws ParseException {
+        var start = tokens.position();
+        var end = tokens.findEnd();
+        if (end == -1) {
+            return parseDefBody();
+        }
+        var body = new LazyBody(this, start, end);
+        lazyBodies.add(body);
+        tokens.seek(end);
+        return body;
     }
 
     private Ast.Stmt parseIfStmt() throws ParseException {
         //if_stmt ::= 'IF' expr 'DO' stmt* ('ELSE' stmt*)? 'END'
 
-        Preconditions.checkState(tokens.match("IF"));
+        var start = tokens.position();
+        Preconditions.checkState(tokens.match(Keyword.IF));
         var cond = parseExpr(); //parses conditions
 
-        if (!tokens.match("DO")) {
+        if (!tokens.match(Keyword.DO)) {
             throw new ParseException("Need DO after if", tokens.getNext());
         }
 
         //then statement
         var then = new ArrayList<Ast.Stmt>();
-        while (!tokens.peek("END") && !tokens.peek("ELSE")) {
+        while (!tokens.peek(Keyword.END) && !tokens.peek(Keyword.ELSE)) {
             if (!tokens.has(0)) {
                 throw new ParseException("end missing", tokens.getNext());
             }
@@ -160,8 +462,8 @@ public final class Parser {
         }
         //else statement
         var elses = new ArrayList<Ast.Stmt>();
-        if (tokens.match("ELSE")) {
-            while (!tokens.peek("END")) {
+        if (tokens.match(Keyword.ELSE)) {
+            while (!tokens.peek(Keyword.END)) {
                 if (!tokens.has(0)) {
                     throw new ParseException("end missing", tokens.getNext());
                 }
@@ -169,47 +471,48 @@ public final class Parser {
             }
         }
 
-        if (!tokens.match("END")) {
+        if (!tokens.match(Keyword.END)) {
             throw new ParseException("Need end", tokens.getNext());
         }
 
-        return new Ast.Stmt.If(cond, then, elses);
+        return span(new Ast.Stmt.If(cond, then, elses), start);
         //throw new UnsupportedOperationException("TODO"); //TODO
     }
 
 
     private Ast.Stmt parseForStmt() throws ParseException {
         //for_stmt ::= 'FOR' identifier 'IN' expr 'DO' stmt* 'END'
-        Preconditions.checkState(tokens.match("FOR"));
+        var start = tokens.position();
+        Preconditions.checkState(tokens.match(Keyword.FOR));
 
         if (!tokens.peek(Token.Type.IDENTIFIER)) {
             throw new ParseException("Expected identifier after FOR", tokens.getNext());
         }
 
-        var nameIdentifier = tokens.get(0).literal();
+        var nameIdentifier = tokens.literal(0);
         tokens.match(Token.Type.IDENTIFIER);
 
-        if (!tokens.match("IN")) {
+        if (!tokens.match(Keyword.IN)) {
             throw new ParseException("Need IN", tokens.getNext());
         }
 
         var it = parseExpr();
-        if (!tokens.match("DO")) {
+        if (!tokens.match(Keyword.DO)) {
             throw new ParseException("expecting Do", tokens.getNext());
         }
 
         var name2 = new ArrayList<Ast.Stmt>();
-        while (!tokens.peek("END")) {
+        while (!tokens.peek(Keyword.END)) {
             if (!tokens.has(0)) {
                 throw new ParseException("missing end", tokens.getNext());
             }
             name2.add(parseStmt());
         }
 
-        if (!tokens.match("END")) {
+        if (!tokens.match(Keyword.END)) {
             throw new ParseException("missing END", tokens.getNext());
         }
-        return new Ast.Stmt.For(nameIdentifier, it, name2);
+        return span(new Ast.Stmt.For(nameIdentifier, it, name2), start);
 
         //throw new UnsupportedOperationException("TODO"); //TODO
     }
@@ -218,14 +521,16 @@ public final class Parser {
     private Ast.Stmt parseReturnStmt() throws ParseException {
         //return_stmt ::= 'RETURN' expr? ('IF' expr)? ';'
 
-        Preconditions.checkState(tokens.match("RETURN"));
-        if (tokens.peek("IF")) {
-            tokens.match("IF");
+        var start = tokens.position();
+        Preconditions.checkState(tokens.match(Keyword.RETURN));
+        if (tokens.peek(Keyword.IF)) {
+            tokens.match(Keyword.IF);
             var cond = parseExpr();
             if (!tokens.match(";")) {
                 throw new ParseException("ExpectS ; after RETURN IF", tokens.getNext());
             }
-            return new Ast.Stmt.If(cond, List.of(new Ast.Stmt.Return(Optional.empty())), List.of());
+            var stmt = span(new Ast.Stmt.Return(Optional.empty()), start);
+            return span(new Ast.Stmt.If(cond, List.of(stmt), List.of()), start);
         }
 
         Optional<Ast.Expr> val = Optional.empty();
@@ -233,7 +538,7 @@ public final class Parser {
 
         if (!tokens.peek(";")) {
             val = Optional.of(parseExpr());
-            if (tokens.match("IF")) {
+            if (tokens.match(Keyword.IF)) {
                 temp = Optional.of(parseExpr());
             }
         }
@@ -242,12 +547,13 @@ public final class Parser {
             throw new ParseException("Need ';' after RETURN", tokens.getNext());
         }
 
-        return new Ast.Stmt.Return(val);
+        return span(new Ast.Stmt.Return(val), start);
     }
 
     private Ast.Stmt parseExpressionOrAssignmentStmt() throws ParseException {
 //expression_or_assignment_stmt ::= expr ('=' expr)? ';'
 
+        var start = tokens.position();
         var before = parseExpr();
         if(tokens.match("=")){
             var after = parseExpr(); //before = after
@@ -258,81 +564,55 @@ public final class Parser {
                 throw new ParseException("assignments in wrong order", tokens.getNext());
             }
 
-            return new Ast.Stmt.Assignment(before,after);
+            return span(new Ast.Stmt.Assignment(before,after), start);
         }
         else{
             if (!tokens.match(";")) {
                 throw new ParseException("Needs ;", tokens.getNext());
             }
         }
-        return new Ast.Stmt.Expression(before);
+        return span(new Ast.Stmt.Expression(before), start);
     }
 
     private Ast.Expr parseExpr() throws ParseException {
-        return parseLogicalExpr();
-    }
-
-    private Ast.Expr parseLogicalExpr() throws ParseException {
-      //logical_expr ::= comparison_expr (('AND' | 'OR') comparison_expr)*
-        var expr = parseComparisonExpr();
-        while (tokens.peek(Token.Type.IDENTIFIER, "AND") || tokens.peek(Token.Type.IDENTIFIER, "OR")) {
-            String operator = tokens.get(0).literal();
-            tokens.match(Token.Type.IDENTIFIER, operator); //consumes
-            var right = parseComparisonExpr();
-            expr = new Ast.Expr.Binary(operator, expr, right);
-        }
-        return expr;
-        //throw new UnsupportedOperationException("TODO: logical"); //TODO
-    }
-
-    private Ast.Expr parseComparisonExpr() throws ParseException {
-        //comparison_expr ::= additive_expr (('<' | '<=' | '>' | '>=' | '==' | '!=') additive_expr)*
-
-        var expr = parseAdditiveExpr();
-        while (tokens.peek("<") || tokens.peek("<=")
-                || tokens.peek(">") || tokens.peek(">=")
-                || tokens.peek("==") || tokens.peek("!=")) {
-            var operator = tokens.get(0).literal();
-            tokens.match(operator);
-            var right = parseAdditiveExpr();
-            expr = new Ast.Expr.Binary(operator, expr, right);
-        }
-        return expr;
-        //throw new UnsupportedOperationException("TODO"); //TODO
+        return maxDepth == 0 ? parseBinaryExpr(LOGICAL) : parseExprWithStack();
     }
 
-    private Ast.Expr parseAdditiveExpr() throws ParseException {
-        //LECTURE CODE
-        //additive ::= mult_expr (('+' | '-') mult_expr)*
-        var expr = parseMultiplicativeExpr();
-        while (tokens.match("+") || tokens.match("-")) {
-            var operator = tokens.get(-1).literal();
-            var right = parseMultiplicativeExpr();
-            expr = new Ast.Expr.Binary(operator, expr, right);
-        }
-        return expr;
-        //throw new UnsupportedOperationException("TODO"); //TODO
-    }
-
-    private Ast.Expr parseMultiplicativeExpr() throws ParseException {
-//LECTURE CODE
-        //multiplicative_expr ::= secondary_expr (('*' | '/') secondary_expr)*
-        //add 1 + 2
-        //var expr = parsePrimaryExpr();
+    /**
+     * Parses a binary expression whose operators have at least the given
+     * precedence, replacing a rule per precedence level with one loop over
+     * the {@link #OPERATORS} table (precedence climbing):
+     *
+     * <pre>
+     * logical_expr ::= comparison_expr (('AND' | 'OR') comparison_expr)*
+     * comparison_expr ::= additive_expr (('<' | '<=' | '>' | '>=' | '==' | '!=') additive_expr)*
+     * additive_expr ::= multiplicative_expr (('+' | '-') multiplicative_expr)*
+     * multiplicative_expr ::= secondary_expr (('*' | '/') secondary_expr)*
+     * </pre>
+     *
+     * All operators are left associative, so the right operand only contains
+     * operators of a strictly higher precedence and the loop folds operators
+     * of the same precedence into the left operand.
+     */
+    private Ast.Expr parseBinaryExpr(int precedence) throws ParseException {
+        var start = tokens.position();
         var expr = parseSecondaryExpr();
-        while (tokens.match("*") || tokens.match("/")) {
-            var operator = tokens.get(-1).literal();
-            var right = parseSecondaryExpr();
-            expr = new Ast.Expr.Binary(operator, expr, right);
+        var operator = tokens.operator();
+        while (operator != null && operator.precedence >= precedence) {
+            tokens.advance();
+            var right = parseBinaryExpr(operator.precedence + 1);
+            expr = span(new Ast.Expr.Binary(operator.literal, expr, right), start);
+            operator = tokens.operator();
         }
         return expr;
     }
 
     private Ast.Expr parseSecondaryExpr() throws ParseException {
         //secondary_expr ::= primary_expr property_or_method*
+        var start = tokens.position();
         var expr = parsePrimaryExpr();
         while (tokens.peek(".")) {
-            expr = parsePropertyOrMethod(expr);
+            expr = span(parsePropertyOrMethod(expr), start);
         }
         return expr;
     }
@@ -348,7 +628,7 @@ public final class Parser {
             throw new ParseException("Needs identifier", tokens.getNext());
         }
 
-        var name = tokens.get(0).literal();
+        var name = tokens.literal(0);
         tokens.match(Token.Type.IDENTIFIER); //advance after finding identifier
 
 
@@ -390,10 +670,10 @@ public final class Parser {
         else if (tokens.peek(Token.Type.STRING)) {
             return parseLiteralExpr();
         }
-        else if (tokens.peek("TRUE") || tokens.peek("FALSE")) {
+        else if (tokens.peek(Keyword.TRUE) || tokens.peek(Keyword.FALSE)) {
             return parseLiteralExpr();
         }
-        else if (tokens.peek("NIL")) {
+        else if (tokens.peek(Keyword.NIL)) {
             return parseLiteralExpr();
         }
 
@@ -401,7 +681,7 @@ public final class Parser {
         else if (tokens.peek("(")){ //group
             return parseGroupExpr();
         }
-        else if (tokens.peek("OBJECT")) { //object
+        else if (tokens.peek(Keyword.OBJECT)) { //object
             return parseObjectExpr();
         }
         else if (tokens.peek(Token.Type.IDENTIFIER)) { //variablefunction
@@ -414,97 +694,104 @@ public final class Parser {
 //missing character here
     private Ast.Expr parseLiteralExpr() throws ParseException {
         //literal_expr ::= 'NIL' | 'TRUE' | 'FALSE' | integer | decimal | character | string
+        var start = tokens.position();
+        return span(parseLiteralValue(), start);
+    }
+
+    private Ast.Expr parseLiteralValue() throws ParseException {
 
-        if (tokens.match("NIL")){
+        if (tokens.match(Keyword.NIL)){
             return new Ast.Expr.Literal(null);
         }
-        else if (tokens.match("TRUE") || tokens.match("FALSE")) {
-            return new Ast.Expr.Literal(Boolean.valueOf(tokens.get(-1).literal()));
+        else if (tokens.match(Keyword.TRUE) || tokens.match(Keyword.FALSE)) {
+            return new Ast.Expr.Literal(Boolean.valueOf(tokens.literal(-1)));
         }
 
         if (tokens.match(Token.Type.INTEGER)) {  //cpnsumes 1 int token
-            var literal = tokens.get(-1).literal(); //use -1 since match consumed the token
+            var literal = tokens.literal(-1); //use -1 since match consumed the token
             return new Ast.Expr.Literal(new BigInteger(literal));
         }
         else if (tokens.match(Token.Type.DECIMAL)) {
-            var literal = tokens.get(-1).literal();
+            var literal = tokens.literal(-1);
             return new Ast.Expr.Literal(new BigDecimal(literal));
         }
         else if (tokens.match(Token.Type.CHARACTER)) {
-            //String literal = tokens.get(-1).literal();
-            //System.out.println("character test");
-            String temp = tokens.get(-1).literal(); //getting rid of quotes
-            String character = temp.substring(1, temp.length() - 1);
-
-            if (character.equals("\\n")) { //newline check
-                character = "\n";
-            }
-
-            return new Ast.Expr.Literal(character.charAt(0));
+            //value is decoded by the lexer, without quotes
+            return new Ast.Expr.Literal(tokens.value(-1).charAt(0));
         }
-        else if (tokens.match(Token.Type.STRING)) { //TOD: NEWLINE solved i think
-            String temp = tokens.get(-1).literal();
-            String strings = temp.substring(1, temp.length() - 1);
-
-            strings = strings.replace("\\n","\n");
-
-            return new Ast.Expr.Literal(strings);
+        else if (tokens.match(Token.Type.STRING)) {
+            return new Ast.Expr.Literal(tokens.value(-1));
         }
         throw new UnsupportedOperationException("Literal problem"); //TODO
     }
 
     private Ast.Expr parseGroupExpr() throws ParseException {
         //group ::+ '(' expr ')'
+        var start = tokens.position();
         Preconditions.checkState(tokens.match("("));
         var expr = parseExpr();
         if(!tokens.match(")")) {
             throw new ParseException("Expected ')'", tokens.getNext());//should be correct as long as abstraction is right
-            //var operator = tokens.get(-1).literal();
+            //var operator = tokens.literal(-1);
         }
-return new Ast.Expr.Group(expr);
+return span(new Ast.Expr.Group(expr), start);
     }
 
     private Ast.Expr parseObjectExpr() throws ParseException {
         //object_expr ::= 'OBJECT' identifier? 'DO' let_stmt* def_stmt* 'END'
-        Preconditions.checkState(tokens.match("OBJECT"));
+        var start = tokens.position();
+        if (maxDepth != 0) {
+            enter();
+            try {
+                return parseObjectExprBody(start);
+            } finally {
+                depth--;
+            }
+        }
+        return parseObjectExprBody(start);
+    }
+
+    private Ast.Expr parseObjectExprBody(int start) throws ParseException {
+        Preconditions.checkState(tokens.match(Keyword.OBJECT));
         Optional<String> objName = Optional.empty();
 
-        if (tokens.peek(Token.Type.IDENTIFIER) && !tokens.get(0).literal().equals("DO")) { //checking name
-            objName = Optional.of(tokens.get(0).literal());
+        if (tokens.peek(Token.Type.IDENTIFIER) && !tokens.peek(Keyword.DO)) { //checking name
+            objName = Optional.of(tokens.literal(0));
             tokens.match(Token.Type.IDENTIFIER); //continue
         }
 
-        if (!tokens.match("DO")) {
+        if (!tokens.match(Keyword.DO)) {
             throw new ParseException("Need do in literal", tokens.getNext());
         }
 
         var let = new ArrayList<Ast.Stmt.Let>();
         var def = new ArrayList<Ast.Stmt.Def>();
 
-        while (!tokens.peek("END")) { //check edge cases here
-            if (tokens.peek("LET")) {
+        while (!tokens.peek(Keyword.END)) { //check edge cases here
+            if (tokens.peek(Keyword.LET)) {
                 //Ast.Stmt parsed = parseLetStmt();
                 let.add((Ast.Stmt.Let) parseLetStmt());
 
-            } else if (tokens.peek("DEF")) {
+            } else if (tokens.peek(Keyword.DEF)) {
                 def.add((Ast.Stmt.Def) parseDefStmt());
             } else {
                 throw new ParseException("Something other than LET or DEF", tokens.getNext());
             }
         }
 
-        if (!tokens.match("END")) {
+        if (!tokens.match(Keyword.END)) {
             throw new ParseException("End shouldnt be here ", tokens.getNext());
         }
 
-        return new Ast.Expr.ObjectExpr(objName, let, def);
+        return span(new Ast.Expr.ObjectExpr(objName, let, def), start);
     }
 
     private Ast.Expr parseVariableOrFunctionExpr() throws ParseException {
         //variable_or_function_expr ::= identifier ('(' (expr (',' expr)*)? ')')?
         //Use because this is an internal method : LECTURE CODE TODO
+        var start = tokens.position();
         Preconditions.checkState(tokens.match(Token.Type.IDENTIFIER));
-        var name = tokens.get(-1).literal();
+        var name = tokens.literal(-1);
         //FUNCTION SIDE
         if (tokens.match("(")){
             //throw new UnsupportedOperationException("TODO");
@@ -519,77 +806,642 @@ return new Ast.Expr.Group(expr);
 if (!tokens.match(")")) {
     throw new ParseException("Expected ')'", tokens.getNext());
 }
-return new Ast.Expr.Function(name,arguments);
+return span(new Ast.Expr.Function(name,arguments), start);
         }
         //VARIABLE SIDE
         else{
-            return new Ast.Expr.Variable(name);
+            return span(new Ast.Expr.Variable(name), start);
         }
     }
 
+    /**
+     * Parses an expression like {@link #parseBinaryExpr}, but with explicit
+     * stacks instead of recursion (see {@link #setMaxDepth}). Operands and
+     * operators are pushed and reduced by precedence (shunting-yard), which
+     * for left associative operators builds the same trees as precedence
+     * climbing. Groups and calls push a frame for their expression(s), which
+     * resumes parsing the enclosing expression once they are closed.
+     *
+     * <p>The trees, spans, and exceptions are the same as the recursive
+     * parser, which is verified by a differential test.
+     */
+    private Ast.Expr parseExprWithStack() throws ParseException {
+        var frames = new ArrayList<Frame>();
+        var operands = new ArrayList<Operand>();
+        var operators = new ArrayList<Operator>();
+        var base = depth;
+        try {
+            frames.add(new ExprFrame(0, 0));
+            Ast.Expr operand = null;
+            var start = 0;
+            while (true) {
+                if (operand == null) {
+                    //primary_expr, or the opening of a group/function call
+                    start = tokens.position();
+                    if (tokens.peek(Token.Type.INTEGER) || tokens.peek(Token.Type.DECIMAL)
+                            || tokens.peek(Token.Type.CHARACTER) || tokens.peek(Token.Type.STRING)
+                            || tokens.peek(Keyword.TRUE) || tokens.peek(Keyword.FALSE) || tokens.peek(Keyword.NIL)) {
+                        operand = parseLiteralExpr();
+                    } else if (tokens.peek("(")) {
+                        enter();
+                        tokens.match("(");
+                        frames.add(new GroupFrame(start));
+                        frames.add(new ExprFrame(operands.size(), operators.size()));
+                        continue;
+                    } else if (tokens.peek(Keyword.OBJECT)) {
+                        operand = parseObjectExpr();
+                    } else if (tokens.match(Token.Type.IDENTIFIER)) {
+                        var name = tokens.literal(-1);
+                        if (!tokens.peek("(")) {
+                            operand = span(new Ast.Expr.Variable(name), start);
+                        } else if (openCall(frames, operands, operators, new CallFrame(start, null, name, new ArrayList<>()))) {
+                            continue;
+                        } else {
+                            operand = span(new Ast.Expr.Function(name, new ArrayList<>()), start);
+                        }
+                    } else {
+                        throw new ParseException("TODO: primary", tokens.getNext());
+                    }
+                }
+                //property_or_method*
+                while (operand != null && tokens.match(".")) {
+                    if (!tokens.peek(Token.Type.IDENTIFIER)) {
+                        throw new ParseException("Needs identifier", tokens.getNext());
+                    }
+                    var name = tokens.literal(0);
+                    tokens.match(Token.Type.IDENTIFIER);
+                    if (!tokens.peek("(")) {
+                        operand = span(new Ast.Expr.Property(operand, name), start);
+                    } else if (openCall(frames, operands, operators, new CallFrame(start, operand, name, new ArrayList<>()))) {
+                        operand = null;
+                    } else {
+                        operand = span(new Ast.Expr.Method(operand, name, new ArrayList<>()), start);
+                    }
+                }
+                if (operand == null) {
+                    continue;
+                }
+                operands.add(new Operand(operand, start, tokens.position()));
+                var frame = (ExprFrame) frames.getLast();
+                var operator = tokens.operator();
+                if (operator != null) {
+                    reduce(operands, operators, frame, operator.precedence);
+                    operators.add(operator);
+                    tokens.advance();
+                    operand = null;
+                    continue;
+                }
+                //The expression is complete, which closes the enclosing frame.
+                reduce(operands, operators, frame, 0);
+                var expr = operands.removeLast().expr;
+                frames.removeLast();
+                if (frames.isEmpty()) {
+                    return expr;
+                }
+                switch (frames.getLast()) {
+                    case GroupFrame group -> {
+                        if (!tokens.match(")")) {
+                            throw new ParseException("Expected ')'", tokens.getNext());
+                        }
+                        frames.removeLast();
+                        depth--;
+                        start = group.start;
+                        operand = span(new Ast.Expr.Group(expr), start);
+                    }
+                    case CallFrame call -> {
+                        call.arguments.add(expr);
+                        if (tokens.match(",") && !tokens.peek(")")) {
+                            frames.add(new ExprFrame(operands.size(), operators.size()));
+                            operand = null;
+                            continue;
+                        }
+                        if (!tokens.match(")")) {
+                            var message = call.receiver == null ? "Expected ')'" : "No closing parenthasese ";
+                            throw new ParseException(message, tokens.getNext());
+                        }
+                        frames.removeLast();
+                        depth--;
+                        start = call.start;
+                        operand = call.receiver == null
+                            ? span(new Ast.Expr.Function(call.name, call.arguments), start)
+                            : span(new Ast.Expr.Method(call.receiver, call.name, call.arguments), start);
+                    }
+                    case ExprFrame ignored -> throw new AssertionError();
+                }
+            }
+        } finally {
+            depth = base;
+        }
+    }
+
+    /**
+     * Matches the '(' of a call, returning true if it has arguments, in which
+     * case the call and its first argument's frames are pushed. Otherwise,
+     * the closing ')' is matched as well.
+     */
+    private boolean openCall(List<Frame> frames, List<Operand> operands, List<Operator> operators, CallFrame call) throws ParseException {
+        enter();
+        Preconditions.checkState(tokens.match("("));
+        if (tokens.match(")")) {
+            depth--;
+            return false;
+        }
+        frames.add(call);
+        frames.add(new ExprFrame(operands.size(), operators.size()));
+        return true;
+    }
+
+    /**
+     * Reduces the operators of the frame with at least the given precedence
+     * into Binary expressions of the operands before and after them.
+     */
+    private void reduce(List<Operand> operands, List<Operator> operators, ExprFrame frame, int precedence) {
+        while (operators.size() > frame.operators && operators.getLast().precedence >= precedence) {
+            var operator = operators.removeLast();
+            var right = operands.removeLast();
+            var left = operands.removeLast();
+            var binary = span(new Ast.Expr.Binary(operator.literal, left.expr, right.expr), left.start, right.end);
+            operands.add(new Operand(binary, left.start, right.end));
+        }
+    }
+
+    /**
+     * Enters a group, call, or object, checking the depth limit.
+     */
+    private void enter() throws ParseException {
+        if (depth == maxDepth) {
+            throw new ParseException("Exceeded the maximum depth of " + maxDepth + ".", tokens.getNext());
+        }
+        depth++;
+    }
+
+    /**
+     * The state of parseParallel: the top-level blocks from the pre-pass, and
+     * the forked DEF bodies with their tasks.
+     */
+    private final class Parallel {
+
+        private final ForkJoinPool pool;
+        private final int minBody;
+        private final Map<Integer, Integer> blocks; //top-level DO position -> matching END position
+        private final List<List<Ast.Stmt>> bodies = new ArrayList<>();
+        private final List<ForkJoinTask<Body>> tasks = new ArrayList<>();
+
+        private record Body(List<Ast.Stmt> statements, SpanTable spans) {}
+
+        private Parallel(ForkJoinPool pool, int minBody, Map<Integer, Integer> blocks) {
+            this.pool = pool;
+            this.minBody = minBody;
+            this.blocks = blocks;
+        }
+
+        /**
+         * Forks the body starting after the DO that was just matched, if it is
+         * a top-level block that is large enough, returning false otherwise.
+         */
+        boolean fork(List<Ast.Stmt> body) {
+            var start = tokens.position();
+            var end = blocks.get(start - 1);
+            if (end == null || end - start < minBody) {
+                return false;
+            }
+            var buffer = tokens.buffer();
+            tasks.add(pool.submit(() -> {
+                var parser = new Parser(buffer, start, end + 1, maxDepth, new SpanTable());
+                try {
+                    var statements = parser.parseDefBody();
+                    return parser.tokens.position() == end ? new Body(statements, parser.spans) : null;
+                } catch (ParseException | RuntimeException | StackOverflowError e) {
+                    return null; //reported by the sequential parse
+                }
+            }));
+            bodies.add(body);
+            tokens.seek(end);
+            return true;
+        }
+
+        /**
+         * Joins the tasks, filling in the bodies and their spans. Returns
+         * false if any task failed.
+         */
+        boolean join() {
+            var success = true;
+            for (int i = 0; i < tasks.size(); i++) {
+                var body = tasks.get(i).join();
+                if (body == null) {
+                    success = false;
+                } else if (success) {
+                    bodies.get(i).addAll(body.statements);
+                    spans.putAll(body.spans);
+                }
+            }
+            return success;
+        }
+
+        void cancel() {
+            for (var task : tasks) {
+                task.cancel(false);
+            }
+        }
+
+    }
+
+    /**
+     * A DEF body recorded by lazy parsing, which is parsed on first access
+     * with a parser limited to the body (see setLazyBodies).
+     */
+    private static final class LazyBody extends AbstractList<Ast.Stmt> {
+
+        private TokenBuffer tokens; //released once parsed
+        private final int start;
+        private final int end;
+        private final int maxDepth;
+        private final SpanTable spans;
+        private final List<LazyBody> lazyBodies;
+        private volatile List<Ast.Stmt> statements;
+
+        private LazyBody(Parser parser, int start, int end) {
+            this.tokens = parser.tokens.buffer();
+            this.start = start;
+            this.end = end;
+            this.maxDepth = parser.maxDepth;
+            this.spans = parser.spans;
+            this.lazyBodies = parser.lazyBodies;
+        }
+
+        private List<Ast.Stmt> statements() throws ParseException {
+            var statements = this.statements;
+            if (statements != null) {
+                return statements;
+            }
+            synchronized (spans) {
+                if (this.statements == null) {
+                    var parser = new Parser(tokens, start, end + 1, maxDepth, spans);
+                    parser.lazyBodies = lazyBodies;
+                    var body = parser.parseDefBody();
+                    if (parser.tokens.position() != end) {
+                        throw new ParseException("DEF body does not end at its matching END.", parser.tokens.getNext());
+                    }
+                    this.statements = body;
+                    tokens = null;
+                }
+                return this.statements;
+            }
+        }
+
+        private List<Ast.Stmt> parsed() {
+            try {
+                return statements();
+            } catch (ParseException e) {
+                throw new UncheckedParseException(e);
+            }
+        }
+
+        @Override
+        public Ast.Stmt get(int index) {
+            return parsed().get(index);
+        }
+
+        @Override
+        public int size() {
+            return parsed().size();
+        }
+
+    }
+
+    /**
+     * A parsed operand with its start and end token positions.
+     */
+    private record Operand(Ast.Expr expr, int start, int end) {}
+
+    private sealed interface Frame {}
+
+    /**
+     * A binary expression, whose operands and operators are on the stacks
+     * from the given sizes.
+     */
+    private record ExprFrame(int operands, int operators) implements Frame {}
+
+    private record GroupFrame(int start) implements Frame {}
+
+    /**
+     * A function (receiver is null) or method call, collecting arguments.
+     */
+    private record CallFrame(int start, Ast.Expr receiver, String name, List<Ast.Expr> arguments) implements Frame {}
+
+    /**
+     * Records the span of ast from the start of the token at position start
+     * to the end of the last consumed token, returning ast.
+     */
+    private <T extends Ast> T span(T ast, int start) {
+        return span(ast, start, tokens.position());
+    }
+
+    /**
+     * Records the span of ast from the token at position start to the token
+     * before position end.
+     */
+    private <T extends Ast> T span(T ast, int start, int end) {
+        if (!tokens.streaming()) {
+            spans.put(ast, tokens.span(start, end));
+        }
+        return ast;
+    }
+
     private static final class TokenStream {
 
-        private final List<Token> tokens;
+        private static final int BATCH_SIZE = 64;
+
+        private final Lexer lexer;
+        private TokenBuffer tokens;
         private int index = 0;
+        private int limit; //the end of the tokens, which is only before the end of the buffer for DEF bodies
+
+        private TokenStream(TokenBuffer tokens) {
+            this(tokens, 0, tokens.size());
+        }
 
-        private TokenStream(List<Token> tokens) {
+        private TokenStream(TokenBuffer tokens, int start, int limit) {
+            this.lexer = null;
             this.tokens = tokens;
+            this.index = start;
+            this.limit = limit;
+        }
+
+        private TokenStream(Lexer lexer) {
+            this.lexer = lexer;
+            this.tokens = TokenBuffer.of(List.of(), new SymbolTable());
+            this.limit = 0;
+        }
+
+        public TokenBuffer buffer() {
+            return tokens;
+        }
+
+        /**
+         * Moves to the token at position, for skipping DEF bodies parsed by
+         * parseParallel (or parsing again after it fails).
+         */
+        public void seek(int position) {
+            Preconditions.checkState(lexer == null);
+            Preconditions.checkPositionIndex(position, limit);
+            index = position;
+        }
+
+        /**
+         * Returns the position of the END matching a DO that was just matched,
+         * or -1 if there isn't one or if a DO/END before it may be an
+         * identifier (see isBlockKeyword), in which case matching DOs and
+         * ENDs may not find the END the parser would.
+         */
+        public int findEnd() {
+            var depth = 0;
+            for (int i = index; i < limit; i++) {
+                var isDo = tokens.isKeyword(i, Keyword.DO);
+                if (!isDo && !tokens.isKeyword(i, Keyword.END)) {
+                    continue;
+                } else if (!isBlockKeyword(i)) {
+                    return -1;
+                } else if (isDo) {
+                    depth++;
+                } else if (depth-- == 0) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Returns whether the DO/END at position (after the DO that was just
+         * matched) can only be a block keyword, going by the token before it.
+         * A block DO follows a DEF header, IF/FOR expression, or OBJECT (and
+         * its name), so a ')', literal, or identifier that isn't a keyword,
+         * where DO as an identifier would never parse. An END following a ';'
+         * or another block's DO or END starts a statement, which always closes
+         * the block since bodies are parsed up to the first END. Anything else
+         * may be an identifier, even if the source wouldn't parse either way.
+         */
+        private boolean isBlockKeyword(int position) {
+            var previous = position - 1;
+            if (tokens.isKeyword(position, Keyword.END)) {
+                return tokens.literalEquals(previous, ";")
+                    || tokens.isKeyword(previous, Keyword.DO)
+                    || tokens.isKeyword(previous, Keyword.END);
+            }
+            return switch (tokens.type(previous)) {
+                case IDENTIFIER -> tokens.symbol(previous) >= KEYWORDS
+                    || tokens.isKeyword(previous, Keyword.OBJECT)
+                    || tokens.isKeyword(previous, Keyword.NIL)
+                    || tokens.isKeyword(previous, Keyword.TRUE)
+                    || tokens.isKeyword(previous, Keyword.FALSE);
+                case INTEGER, DECIMAL, CHARACTER, STRING -> true;
+                case OPERATOR -> tokens.literalEquals(previous, ")");
+            };
+        }
+
+        /**
+         * Pre-pass for parseParallel, returning the position of the matching
+         * END for each DO that isn't nested in another block. Unmatched ENDs
+         * are ignored, which can only happen in an invalid source.
+         */
+        public Map<Integer, Integer> findBlocks() {
+            var blocks = new HashMap<Integer, Integer>();
+            var depth = 0;
+            var open = 0;
+            for (int i = index; i < limit; i++) {
+                if (tokens.isKeyword(i, Keyword.DO)) {
+                    if (depth++ == 0) {
+                        open = i;
+                    }
+                } else if (tokens.isKeyword(i, Keyword.END) && depth > 0) {
+                    if (--depth == 0) {
+                        blocks.put(open, i);
+                    }
+                }
+            }
+            return blocks;
+        }
+
+        public boolean streaming() {
+            return lexer != null;
+        }
+
+        /**
+         * Returns the current index, for use with span().
+         */
+        public int position() {
+            return index;
+        }
+
+        /**
+         * Returns the span from the token at start to the last consumed token,
+         * which is empty at the next token if none were consumed (e.g. an
+         * empty source).
+         */
+        public long span(int start) {
+            return span(start, index);
+        }
+
+        /**
+         * Returns the span from the token at start to the token before end.
+         */
+        public long span(int start, int end) {
+            if (start == end) {
+                var offset = end < tokens.size() ? tokens.start(end) : tokens.source().length();
+                return Span.of(offset, offset);
+            }
+            return Span.of(tokens.start(start), tokens.start(end - 1) + tokens.length(end - 1));
         }
 
         /**
          * Returns true if there is a token at (index + offset).
          */
-        public boolean has(int offset) {
-            return index + offset < tokens.size();
+        public boolean has(int offset) throws ParseException {
+            return index + offset < limit || refill(offset);
+        }
+
+        /**
+         * When streaming, replaces the buffer with one containing the previous
+         * token (for get(-1)), the remaining lookahead, and the next batch of
+         * tokens from the lexer. Returns true if (index + offset) is now in
+         * the buffer.
+         */
+        private boolean refill(int offset) throws ParseException {
+            if (lexer == null) {
+                return false;
+            }
+            var retained = new ArrayList<Token>();
+            for (int i = Math.max(index - 1, 0); i < tokens.size(); i++) {
+                retained.add(tokens.get(i));
+            }
+            var previous = Math.min(index, 1);
+            try {
+                while (retained.size() < previous + offset + BATCH_SIZE) {
+                    var token = lexer.nextToken();
+                    if (token.isEmpty()) {
+                        break;
+                    }
+                    retained.add(token.get());
+                }
+            } catch (LexException e) {
+                throw new ParseException(e.getMessage(), Optional.empty());
+            }
+            tokens = TokenBuffer.of(retained, tokens.symbols());
+            index = previous;
+            limit = tokens.size();
+            return index + offset < limit;
         }
 
         /**
          * Returns the token at (index + offset).
          */
-        public Token get(int offset) {
+        public Token get(int offset) throws ParseException {
             Preconditions.checkState(has(offset));
             return tokens.get(index + offset);
         }
 
         /**
-         * Returns the next token, if present.
+         * Returns the literal of the token at (index + offset). Prefer this
+         * over get(offset).literal(), which also creates the Token.
          */
-        public Optional<Token> getNext() {
-            return index < tokens.size() ? Optional.of(tokens.get(index)) : Optional.empty();
+        public String literal(int offset) throws ParseException {
+            Preconditions.checkState(has(offset));
+            return tokens.literal(index + offset);
         }
 
         /**
-         * Returns true if the next characters match their corresponding
-         * pattern. Each pattern is either a {@link Token.Type}, matching tokens
-         * of that type, or a {@link String}, matching tokens with that literal.
-         * In effect, {@code new Token(Token.Type.IDENTIFIER, "literal")} is
-         * matched by both {@code peek(Token.Type.IDENTIFIER)} and
-         * {@code peek("literal")}.
+         * Returns the decoded value of the STRING/CHARACTER token at
+         * (index + offset), see {@link TokenBuffer#value}.
          */
-        public boolean peek(Object... patterns) {
-            if (!has(patterns.length - 1)) {
-                return false;
+        public String value(int offset) throws ParseException {
+            Preconditions.checkState(has(offset));
+            return tokens.value(index + offset);
+        }
+
+        /**
+         * Returns the next token as a binary operator, or null if it isn't one
+         * (including at the end of input), see {@link #OPERATORS}.
+         */
+        public Operator operator() throws ParseException {
+            if (!has(0)) {
+                return null;
             }
-            for (int offset = 0; offset < patterns.length; offset++) {
-                var token = tokens.get(index + offset);
-                var pattern = patterns[offset];
-                Preconditions.checkState(pattern instanceof Token.Type || pattern instanceof String, pattern);
-                if (!token.type().equals(pattern) && !token.literal().equals(pattern)) {
-                    return false;
-                }
+            var i = index;
+            if (tokens.type(i) == Token.Type.IDENTIFIER) {
+                var symbol = tokens.symbol(i);
+                return symbol >= 0 && symbol < KEYWORD_OPERATORS.length ? KEYWORD_OPERATORS[symbol] : null;
+            } else if (tokens.type(i) != Token.Type.OPERATOR) {
+                return null;
             }
-            return true;
+            var source = tokens.source();
+            var first = source.charAt(tokens.start(i));
+            var length = tokens.length(i);
+            if (first >= 128 || length > 2 || (length == 2 && source.charAt(tokens.start(i) + 1) != '=')) {
+                return null;
+            }
+            return OPERATORS[first + (length == 2 ? 128 : 0)];
         }
 
         /**
-         * Equivalent to peek, but also advances the token stream.
+         * Advances past the next token, which must be present.
          */
-        public boolean match(Object... patterns) {
-            var peek = peek(patterns);
-            if (peek) {
-                index += patterns.length;
+        public void advance() throws ParseException {
+            Preconditions.checkState(has(0));
+            index++;
+        }
+
+        /**
+         * Returns the next token, if present.
+         */
+        public Optional<Token> getNext() throws ParseException {
+            return has(0) ? Optional.of(tokens.get(index)) : Optional.empty();
+        }
+
+        /*
+         * Returns true if the next token matches the pattern, which is either
+         * a {@link Token.Type}, matching tokens of that type, a {@link Keyword},
+         * matching identifiers with that symbol, or a {@link String}, matching
+         * tokens with that literal. In effect, {@code new Token(Token.Type.IDENTIFIER, "literal")}
+         * is matched by both {@code peek(Token.Type.IDENTIFIER)} and
+         * {@code peek("literal")}. Each pattern type has its own overload,
+         * avoiding a varargs array and a switch over the pattern type, and
+         * match is equivalent to peek but also advances the token stream.
+         */
+
+        public boolean peek(Token.Type type) throws ParseException {
+            return has(0) && tokens.type(index) == type;
+        }
+
+        public boolean peek(Keyword keyword) throws ParseException {
+            return has(0) && tokens.isKeyword(index, keyword);
+        }
+
+        public boolean peek(String literal) throws ParseException {
+            return has(0) && tokens.literalEquals(index, literal);
+        }
+
+        public boolean match(Token.Type type) throws ParseException {
+            if (!peek(type)) {
+                return false;
             }
-            return peek;
+            index++;
+            return true;
+        }
+
+        public boolean match(Keyword keyword) throws ParseException {
+            if (!peek(keyword)) {
+                return false;
+            }
+            index++;
+            return true;
+        }
+
+        public boolean match(String literal) throws ParseException {
+            if (!peek(literal)) {
+                return false;
+            }
+            index++;
+            return true;
         }
 
     }
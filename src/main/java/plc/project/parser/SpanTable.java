@@ -0,0 +1,90 @@
+package plc.project.parser;
+
+import plc.project.lexer.Span;
+
+import java.util.OptionalLong;
+
+/**
+ * Maps AST nodes to their {@link Span} in the source, kept alongside the AST
+ * so the {@link Ast} records don't need a position component. Nodes are keyed
+ * by identity, since equal records (e.g. two uses of the same variable) are
+ * still different positions, and spans are stored in a primitive array
+ * rather than as an object per node.
+ */
+public final class SpanTable {
+
+    private Ast[] keys = new Ast[64];
+    private long[] spans = new long[64];
+    private int size = 0;
+
+    void put(Ast ast, long span) {
+        if (size * 2 >= keys.length) {
+            rehash();
+        }
+        var mask = keys.length - 1;
+        var slot = hash(ast) & mask;
+        while (keys[slot] != null && keys[slot] != ast) {
+            slot = (slot + 1) & mask;
+        }
+        if (keys[slot] == null) {
+            keys[slot] = ast;
+            size++;
+        }
+        spans[slot] = span;
+    }
+
+    /**
+     * Adds all spans from other, e.g. from a DEF body parsed in parallel.
+     */
+    void putAll(SpanTable other) {
+        for (int i = 0; i < other.keys.length; i++) {
+            if (other.keys[i] != null) {
+                put(other.keys[i], other.spans[i]);
+            }
+        }
+    }
+
+    void clear() {
+        keys = new Ast[64];
+        spans = new long[64];
+        size = 0;
+    }
+
+    /**
+     * Returns the span of the node, if it was created by the parser.
+     */
+    public OptionalLong get(Ast ast) {
+        var mask = keys.length - 1;
+        var slot = hash(ast) & mask;
+        while (keys[slot] != null) {
+            if (keys[slot] == ast) {
+                return OptionalLong.of(spans[slot]);
+            }
+            slot = (slot + 1) & mask;
+        }
+        return OptionalLong.empty();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private static int hash(Ast ast) {
+        var hash = System.identityHashCode(ast);
+        return hash ^ (hash >>> 16);
+    }
+
+    private void rehash() {
+        var oldKeys = keys;
+        var oldSpans = spans;
+        keys = new Ast[oldKeys.length * 2];
+        spans = new long[oldKeys.length * 2];
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null) {
+                put(oldKeys[i], oldSpans[i]);
+            }
+        }
+    }
+
+}
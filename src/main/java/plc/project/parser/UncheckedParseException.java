@@ -0,0 +1,19 @@
+package plc.project.parser;
+
+/**
+ * Wraps a {@link ParseException} thrown while iterating over
+ * {@link Parser#statements()}, since {@link java.util.Iterator} methods can't
+ * throw checked exceptions (like {@link java.io.UncheckedIOException}).
+ */
+public final class UncheckedParseException extends RuntimeException {
+
+    public UncheckedParseException(ParseException cause) {
+        super(cause.getMessage(), cause);
+    }
+
+    @Override
+    public ParseException getCause() {
+        return (ParseException) super.getCause();
+    }
+
+}
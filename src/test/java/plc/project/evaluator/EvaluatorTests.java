@@ -6,9 +6,11 @@ import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
 import plc.project.lexer.Lexer;
 import plc.project.parser.Ast;
+import plc.project.parser.ParseException;
 import plc.project.parser.Parser;
 
 import java.math.BigDecimal;
+import java.io.StringReader;
 import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.List;
@@ -667,6 +669,33 @@ final class EvaluatorTests {
         );
     }
 
+    @ParameterizedTest
+    @MethodSource
+    void testStatements(String test, String program, Optional<RuntimeValue> value, RuntimeValue x) {
+        //Statements before a parse error are still evaluated.
+        var parser = new Parser(new Lexer(new StringReader(program)));
+        var evaluator = new Evaluator(new Scope(Environment.scope()));
+        if (value.isPresent()) {
+            Assertions.assertEquals(value.get(), Assertions.assertDoesNotThrow(() -> evaluator.evaluate(parser.statements())));
+        } else {
+            Assertions.assertThrows(ParseException.class, () -> evaluator.evaluate(parser.statements()));
+        }
+        Assertions.assertEquals(Optional.of(x), evaluator.getScope().resolve("x", true));
+    }
+
+    private static Stream<Arguments> testStatements() {
+        return Stream.of(
+            Arguments.of("Statements", "LET x = 1;\nx = (2);\nLET y = x;",
+                Optional.of(new RuntimeValue.Primitive(new BigInteger("2"))),
+                new RuntimeValue.Primitive(new BigInteger("2"))
+            ),
+            Arguments.of("Parse Error", "LET x = 1;\nLET ;",
+                Optional.empty(),
+                new RuntimeValue.Primitive(new BigInteger("1"))
+            )
+        );
+    }
+
     /**
      * Test function for the Evaluator. The {@link Input} behaves the same as
      * in parser tests, but will now rely on the parser behavior too. This
@@ -5,7 +5,16 @@ import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
 
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Stream;
 
 public final class LexerTests {
@@ -33,7 +42,8 @@ public final class LexerTests {
     public static Stream<Arguments> testComment() {
         return Stream.of(
             Arguments.of("Empty", "//", true),
-            Arguments.of("Text", "//comment", true)
+            Arguments.of("Text", "//comment", true),
+            Arguments.of("Carriage Return", "//comment\r\n", true)
         );
     }
 
@@ -204,6 +214,397 @@ public final class LexerTests {
         );
     }
 
+    @ParameterizedTest
+    @MethodSource
+    void testBuffer(String test, String input, List<Integer> starts) {
+        var buffer = Assertions.assertDoesNotThrow(() -> new Lexer(input).lexBuffer());
+        Assertions.assertEquals(starts.size(), buffer.size());
+        for (int i = 0; i < buffer.size(); i++) {
+            Assertions.assertEquals((int) starts.get(i), buffer.start(i));
+            Assertions.assertTrue(buffer.literalEquals(i, buffer.literal(i)));
+        }
+        Assertions.assertEquals(Assertions.assertDoesNotThrow(() -> new Lexer(input).lex()), buffer.toList());
+    }
+
+    public static Stream<Arguments> testBuffer() {
+        return Stream.of(
+            Arguments.of("Empty", "", List.of()),
+            Arguments.of("Variable", "LET x = 5;", List.of(0, 4, 6, 8, 9)),
+            Arguments.of("Comment", "a // b\n  c", List.of(0, 9))
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void testLines(String test, String input, List<String> positions) {
+        var buffer = Assertions.assertDoesNotThrow(() -> new Lexer(input).lexBuffer());
+        Assertions.assertEquals(positions, positions(buffer));
+        Assertions.assertEquals(positions, positions(Assertions.assertDoesNotThrow(() -> new DfaLexer(input).lexBuffer())));
+    }
+
+    public static Stream<Arguments> testLines() {
+        return Stream.of(
+            Arguments.of("Single Line", "LET x = 5;", List.of("1:1", "1:5", "1:7", "1:9", "1:10")),
+            Arguments.of("Multiple Lines", "a\nb\n\n  c", List.of("1:1", "2:1", "4:3")),
+            Arguments.of("Carriage Return", "a\r\nb", List.of("1:1", "2:1")),
+            Arguments.of("Comment", "a // b\nc // d\n", List.of("1:1", "2:1"))
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void testValues(String test, String input, List<String> values) throws IOException {
+        var path = Files.createTempFile("lexer", ".plc");
+        path.toFile().deleteOnExit();
+        Files.writeString(path, input);
+        var string = Assertions.assertDoesNotThrow(() -> new Lexer(input).lexBuffer());
+        var bytes = Assertions.assertDoesNotThrow(() -> Lexer.fromPath(path).lexBuffer());
+        for (var buffer : List.of(string, bytes)) {
+            var received = new ArrayList<String>();
+            for (int i = 0; i < buffer.size(); i++) {
+                received.add(buffer.value(i));
+            }
+            Assertions.assertEquals(values, received);
+        }
+    }
+
+    public static Stream<Arguments> testValues() {
+        return Stream.of(
+            Arguments.of("Character", "'c' '\\n' '\\''", List.of("c", "\n", "'")),
+            Arguments.of("String", "\"\" \"string\"", List.of("", "string")),
+            Arguments.of("Escapes", "\"\\b\\n\\r\\t\\'\\\"\\\\\"", List.of("\b\n\r\t'\"\\")),
+            Arguments.of("Unicode", "\"h\u00e9llo \u2603\\n\"", List.of("h\u00e9llo \u2603\n"))
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void testSymbols(String test, String input, List<Optional<Keyword>> keywords) {
+        var buffer = Assertions.assertDoesNotThrow(() -> new Lexer(input).lexBuffer());
+        for (int i = 0; i < buffer.size(); i++) {
+            for (int j = 0; j < buffer.size(); j++) {
+                if (buffer.type(i) == Token.Type.IDENTIFIER && buffer.literal(i).equals(buffer.literal(j))) {
+                    Assertions.assertEquals(buffer.symbol(i), buffer.symbol(j));
+                    Assertions.assertSame(buffer.literal(i), buffer.literal(j));
+                }
+            }
+            for (var keyword : Keyword.values()) {
+                Assertions.assertEquals(keywords.get(i).equals(Optional.of(keyword)), buffer.isKeyword(i, keyword));
+            }
+        }
+    }
+
+    public static Stream<Arguments> testSymbols() {
+        return Stream.of(
+            Arguments.of("Keywords", "LET DEF END", List.of(Optional.of(Keyword.LET), Optional.of(Keyword.DEF), Optional.of(Keyword.END))),
+            Arguments.of("Identifiers", "x = x + LETTER", List.of(Optional.empty(), Optional.empty(), Optional.empty(), Optional.empty(), Optional.empty())),
+            Arguments.of("String", "\"NIL\" NIL", List.of(Optional.empty(), Optional.of(Keyword.NIL)))
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void testStreaming(String test, String input) {
+        var expected = Assertions.assertDoesNotThrow(() -> new Lexer(input).lex());
+        var lexer = new Lexer(new StringReader(input));
+        var received = new ArrayList<Token>();
+        Assertions.assertDoesNotThrow(() -> {
+            for (var token = lexer.nextToken(); token.isPresent(); token = lexer.nextToken()) {
+                received.add(token.get());
+            }
+        });
+        Assertions.assertEquals(expected, received);
+    }
+
+    public static Stream<Arguments> testStreaming() {
+        return Stream.of(
+            Arguments.of("Empty", ""),
+            Arguments.of("Variable", "LET x = 5;"),
+            Arguments.of("Larger Than Window", "LET x = \"string\"; // comment\n".repeat(1000)),
+            Arguments.of("Token Larger Than Window", "\"" + "s".repeat(20000) + "\" 1.0e10")
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void testStreamingException(String test, String input, int index) {
+        var lexer = new Lexer(new StringReader(input));
+        var e = Assertions.assertThrows(LexException.class, () -> {
+            while (lexer.nextToken().isPresent()) {}
+        });
+        Assertions.assertEquals(index, e.getIndex());
+    }
+
+    public static Stream<Arguments> testStreamingException() {
+        return Stream.of(
+            Arguments.of("Character Unterminated", "\'u", 2),
+            Arguments.of("After Window", " ".repeat(10000) + "\"invalid\\escape\"", 10009)
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void testPath(String test, String input) throws IOException {
+        var path = Files.createTempFile("lexer", ".plc");
+        path.toFile().deleteOnExit(); //mapped files can't be deleted immediately on Windows
+        Files.writeString(path, input);
+        var expected = Assertions.assertDoesNotThrow(() -> new Lexer(input).lexBuffer());
+        var received = Assertions.assertDoesNotThrow(() -> Lexer.fromPath(path).lexBuffer());
+        Assertions.assertEquals(expected.toList(), received.toList());
+        //Offsets are bytes rather than chars, but lines are the same.
+        for (int i = 0; i < expected.size(); i++) {
+            Assertions.assertEquals(expected.lines().line(expected.start(i)), received.lines().line(received.start(i)));
+        }
+    }
+
+    public static Stream<Arguments> testPath() {
+        return Stream.of(
+            Arguments.of("Empty", ""),
+            Arguments.of("Variable", "LET x = 5;"),
+            Arguments.of("Unicode String", "print(\"h\u00e9llo \u2603\"); // \u00e9\n"),
+            //Longer than a vector, for the VectorScanner fast path.
+            Arguments.of("Whitespace", " \t\r\n".repeat(50) + "x" + " ".repeat(63) + "\n".repeat(65) + "y \b\n"),
+            Arguments.of("Comments", ("// " + "-".repeat(100) + "\r\n").repeat(10) + "x //" + "\u00e9".repeat(40) + "\ny//")
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void testBytes(String test, String input) {
+        var expected = Assertions.assertDoesNotThrow(() -> new Lexer(input).lexBuffer());
+        var bytes = input.getBytes(StandardCharsets.UTF_8);
+        var buffer = ByteBuffer.allocate(bytes.length + 2).put((byte) '?').put(bytes).position(1).limit(bytes.length + 1);
+        for (var lexer : List.of(new Lexer(bytes), new Lexer(buffer))) {
+            var received = Assertions.assertDoesNotThrow(lexer::lexBuffer);
+            Assertions.assertEquals(expected.toList(), received.toList());
+            for (int i = 0; i < expected.size(); i++) {
+                if (expected.type(i) == Token.Type.STRING || expected.type(i) == Token.Type.CHARACTER) {
+                    Assertions.assertEquals(expected.value(i), received.value(i));
+                }
+            }
+        }
+    }
+
+    public static Stream<Arguments> testBytes() {
+        return Stream.of(
+            Arguments.of("Ascii", "LET x = \"string\\n\" + 'c';"),
+            Arguments.of("Unicode Character", "'\u00e9' '\u2603' '\\n'"),
+            Arguments.of("Unicode String", "\"h\u00e9llo \u2603 \ud83d\ude00\" // \u00e9\n"),
+            //Supplementary characters are one operator, rather than two surrogates.
+            Arguments.of("Unicode Operator", "x \u00e9\u2603 y")
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void testBytesException(String test, byte[] input, int index) {
+        var e = Assertions.assertThrows(LexException.class, () -> new Lexer(input).lex());
+        Assertions.assertEquals(index, e.getIndex());
+    }
+
+    public static Stream<Arguments> testBytesException() {
+        return Stream.of(
+            Arguments.of("Missing Continuation", new byte[] {'"', (byte) 0xC3, '"'}, 2),
+            Arguments.of("Overlong", new byte[] {'"', (byte) 0xC0, (byte) 0x80, '"'}, 2),
+            Arguments.of("Surrogate", new byte[] {'"', (byte) 0xED, (byte) 0xA0, (byte) 0x80, '"'}, 4),
+            Arguments.of("Supplementary Character", "'\ud83d\ude00'".getBytes(StandardCharsets.UTF_8), 5)
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void testParallel(String test, String input) {
+        var pool = new ForkJoinPool(4);
+        try {
+            try {
+                var expected = new Lexer(input).lex();
+                var received = Assertions.assertDoesNotThrow(() -> new Lexer(input).lexParallel(pool, 8));
+                Assertions.assertEquals(expected, received.toList());
+                Assertions.assertEquals(positions(Assertions.assertDoesNotThrow(() -> new Lexer(input).lexBuffer())), positions(received));
+            } catch (LexException expected) {
+                var received = Assertions.assertThrows(LexException.class, () -> new Lexer(input).lexParallel(pool, 8));
+                Assertions.assertEquals(expected.getIndex(), received.getIndex());
+                Assertions.assertEquals(expected.getMessage(), received.getMessage());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    public static Stream<Arguments> testParallel() {
+        return Stream.of(
+            Arguments.of("Single Chunk", "LET x = 5;"),
+            Arguments.of("Program", "LET x = 5; // comment\nprint(\"string\");\n\n  x = x + 1.0e10;\n".repeat(20)),
+            Arguments.of("No Trailing Newline", "first\nsecond\nthird\nfourth"),
+            Arguments.of("Exception", "LET x = 5;\n".repeat(10) + "\"invalid\\escape\"\n" + "\'u\n".repeat(10)),
+            Arguments.of("Unterminated String", "LET x = 5;\n".repeat(10) + "\"unterminated\nstring\"\n")
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void testRelex(String test, String input, int offset, int removed, String inserted, TokenDelta expected) {
+        var edited = input.substring(0, offset) + inserted + input.substring(offset + removed);
+        var previous = Assertions.assertDoesNotThrow(() -> new Lexer(input).lexBuffer());
+        var delta = Assertions.assertDoesNotThrow(() -> Lexer.relex(previous, offset, removed, inserted));
+        Assertions.assertEquals(Assertions.assertDoesNotThrow(() -> new Lexer(edited).lex()), delta.tokens().toList());
+        Assertions.assertEquals(positions(Assertions.assertDoesNotThrow(() -> new Lexer(edited).lexBuffer())), positions(delta.tokens()));
+        Assertions.assertEquals(expected.start(), delta.start());
+        Assertions.assertEquals(expected.removed(), delta.removed());
+        Assertions.assertEquals(expected.inserted(), delta.inserted());
+    }
+
+    public static Stream<Arguments> testRelex() {
+        //Only start/removed/inserted are checked, the tokens are compared against a full lex.
+        return Stream.of(
+            Arguments.of("Rename", "LET x = 5;\nLET y = 6;", 4, 1, "name", new TokenDelta(null, 0, 2, 2)),
+            Arguments.of("Extend Identifier", "LET x = 5;", 5, 0, "y", new TokenDelta(null, 0, 2, 2)),
+            Arguments.of("Insert Statement", "LET x = 5;\nLET y = 6;", 11, 0, "x = 1;\n", new TokenDelta(null, 3, 2, 6)),
+            Arguments.of("Comment Out", "LET x = 5;\nLET y = 6;", 11, 0, "//", new TokenDelta(null, 3, 7, 2)),
+            Arguments.of("Join Comment", "a //b\nc;", 5, 1, "", new TokenDelta(null, 1, 2, 0))
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void testDfa(String test, String input) {
+        testDfa(input);
+    }
+
+    public static Stream<Arguments> testDfa() {
+        return Stream.of(
+            Arguments.of("Program", "LET x = 5; // comment\nprint(\"Hello,\\nWorld!\");\nx = -1.0e+10 <= 'c';"),
+            Arguments.of("Number Lookahead", "1. 1.field 1e 1e+ 1e+5 1.5e 1.5e-2 +5 -x"),
+            Arguments.of("Operators", "<=> != ! == = / // +-*"),
+            Arguments.of("Unterminated String", "\"unterminated"),
+            Arguments.of("Invalid Escape", "'\\e'"),
+            Arguments.of("Unicode", "\"\u00e9\" \u00e9 '\u2603'")
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void testDfaRandom(String test, long seed) {
+        //Random concatenations of token fragments, which are mostly invalid.
+        var fragments = List.of("LET", "x", "_a-1", "5", "1.5", "e", "E", ".", "+", "-", "/", "//c", "=", "<", "!",
+            "(", ";", " ", "\n", "\r", "\t", "\b", "'", "\"", "\\", "n", "'c'", "\"s\"", "\u00e9");
+        var random = new Random(seed);
+        for (int i = 0; i < 1000; i++) {
+            var builder = new StringBuilder();
+            for (int j = random.nextInt(10); j > 0; j--) {
+                builder.append(fragments.get(random.nextInt(fragments.size())));
+            }
+            testDfa(builder.toString());
+        }
+    }
+
+    public static Stream<Arguments> testDfaRandom() {
+        return Stream.of(
+            Arguments.of("Seed 1", 1L),
+            Arguments.of("Seed 2", 2L),
+            Arguments.of("Seed 3", 3L)
+        );
+    }
+
+    /**
+     * Returns the line:column position of each token.
+     */
+    private static List<String> positions(TokenBuffer buffer) {
+        var positions = new ArrayList<String>();
+        for (int i = 0; i < buffer.size(); i++) {
+            positions.add(buffer.lines().format(buffer.start(i)));
+        }
+        return positions;
+    }
+
+    /**
+     * Differential test of DfaLexer against Lexer, which must produce the
+     * same tokens or throw a LexException at the same index.
+     */
+    private static void testDfa(String input) {
+        try {
+            var expected = new Lexer(input).lex();
+            var received = Assertions.assertDoesNotThrow(() -> new DfaLexer(input).lex(), input);
+            Assertions.assertEquals(expected, received, input);
+        } catch (LexException expected) {
+            var received = Assertions.assertThrows(LexException.class, () -> new DfaLexer(input).lex(), input);
+            Assertions.assertEquals(expected.getIndex(), received.getIndex(), input);
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void testRecovering(String test, String input, List<Token> expected, List<Integer> errors, List<Integer> indices) {
+        var result = new Lexer(input).lexRecovering();
+        Assertions.assertEquals(expected, result.tokens().toList());
+        var received = new ArrayList<Integer>();
+        for (int i = 0; i < result.tokens().size(); i++) {
+            if (result.tokens().isError(i)) {
+                received.add(i);
+            }
+        }
+        Assertions.assertEquals(errors, received);
+        Assertions.assertEquals(indices, result.diagnostics().stream().map(Diagnostic::index).toList());
+        //The first diagnostic is the exception thrown by lex().
+        var e = Assertions.assertThrows(LexException.class, () -> new Lexer(input).lex());
+        Assertions.assertEquals(e.getIndex(), (int) indices.getFirst());
+    }
+
+    public static Stream<Arguments> testRecovering() {
+        return Stream.of(
+            Arguments.of("Invalid Escape", "x = \"a\\qb\";", List.of(
+                new Token(Token.Type.IDENTIFIER, "x"),
+                new Token(Token.Type.OPERATOR, "="),
+                new Token(Token.Type.STRING, "\"a\\qb\""),
+                new Token(Token.Type.OPERATOR, ";")
+            ), List.of(2), List.of(7)),
+            Arguments.of("Multiple Errors", "'ab' + ''\n\"unterminated\n1", List.of(
+                new Token(Token.Type.CHARACTER, "'ab'"),
+                new Token(Token.Type.OPERATOR, "+"),
+                new Token(Token.Type.CHARACTER, "''"),
+                new Token(Token.Type.STRING, "\"unterminated"),
+                new Token(Token.Type.INTEGER, "1")
+            ), List.of(0, 2, 3), List.of(2, 8, 23)),
+            Arguments.of("Character With Double Quote", "'a\"b' + \"c\"", List.of(
+                new Token(Token.Type.CHARACTER, "'a\"b'"),
+                new Token(Token.Type.OPERATOR, "+"),
+                new Token(Token.Type.STRING, "\"c\"")
+            ), List.of(0), List.of(2)),
+            Arguments.of("Unterminated End", "x '", List.of(
+                new Token(Token.Type.IDENTIFIER, "x"),
+                new Token(Token.Type.CHARACTER, "'")
+            ), List.of(1), List.of(3))
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void testMetrics(String test, String input, int identifiers, int operators) {
+        var counters = new LexerCounters();
+        Lexer.setMetrics(counters);
+        try {
+            Assertions.assertDoesNotThrow(() -> new Lexer(input).lexBuffer());
+            new Lexer(input).lexRecovering();
+            Assertions.assertThrows(LexException.class, () -> new Lexer(input + " '").lexBuffer());
+        } finally {
+            Lexer.setMetrics(null);
+        }
+        Assertions.assertEquals(2, counters.calls());
+        Assertions.assertEquals(2L * identifiers, counters.tokens(Token.Type.IDENTIFIER));
+        Assertions.assertEquals(2L * operators, counters.tokens(Token.Type.OPERATOR));
+        Assertions.assertEquals(2L * input.length(), counters.scanned());
+        Assertions.assertTrue(counters.allocatedBytes() >= 0);
+        Assertions.assertDoesNotThrow(() -> new Lexer(input).lexBuffer());
+        Assertions.assertEquals(2, counters.calls());
+    }
+
+    public static Stream<Arguments> testMetrics() {
+        return Stream.of(
+            Arguments.of("Empty", "", 0, 0),
+            Arguments.of("Program", "LET x = 5; // comment\nprint(x);", 4, 5)
+        );
+    }
+
     @ParameterizedTest
     @MethodSource
     void testFailedCharacter(String test, String input, boolean equals) {
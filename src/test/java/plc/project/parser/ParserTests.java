@@ -1,16 +1,24 @@
 package plc.project.parser;
 
+import com.google.common.primitives.Bytes;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
 import plc.project.lexer.Lexer;
+import plc.project.lexer.Span;
 import plc.project.lexer.Token;
 
+import java.io.IOException;
+import java.io.StringReader;
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Stream;
 
 final class ParserTests {
@@ -333,6 +341,22 @@ final class ParserTests {
             Arguments.of("String Newline Escape",
                 List.of(new Token(Token.Type.STRING, "\"Hello,\\nWorld!\"")),
                 new Ast.Expr.Literal("Hello,\nWorld!")
+            ),
+            Arguments.of("Character Escape",
+                List.of(new Token(Token.Type.CHARACTER, "\'\\\'\'")),
+                new Ast.Expr.Literal('\'')
+            ),
+            Arguments.of("String Escapes",
+                List.of(new Token(Token.Type.STRING, "\"\\b\\n\\r\\t\\'\\\"\\\\\"")),
+                new Ast.Expr.Literal("\b\n\r\t\'\"\\")
+            ),
+            Arguments.of("String Escapes Lexed",
+                "\"\\b\\n\\r\\t\\'\\\"\\\\\"",
+                new Ast.Expr.Literal("\b\n\r\t\'\"\\")
+            ),
+            Arguments.of("String Escaped Backslash",
+                "\"\\\\n\"",
+                new Ast.Expr.Literal("\\n")
             )
         );
     }
@@ -395,6 +419,24 @@ final class ParserTests {
                     new Ast.Expr.Variable("right")
                 )
             ),
+            Arguments.of("Logical",
+                List.of(
+                    new Token(Token.Type.IDENTIFIER, "left"),
+                    new Token(Token.Type.IDENTIFIER, "AND"),
+                    new Token(Token.Type.IDENTIFIER, "middle"),
+                    new Token(Token.Type.IDENTIFIER, "OR"),
+                    new Token(Token.Type.IDENTIFIER, "right")
+                ),
+                new Ast.Expr.Binary(
+                    "OR",
+                    new Ast.Expr.Binary(
+                        "AND",
+                        new Ast.Expr.Variable("left"),
+                        new Ast.Expr.Variable("middle")
+                    ),
+                    new Ast.Expr.Variable("right")
+                )
+            ),
             Arguments.of("Equal Precedence",
                 List.of(
                     new Token(Token.Type.IDENTIFIER, "first"),
@@ -448,6 +490,58 @@ final class ParserTests {
                     ),
                     new Ast.Expr.Variable("third")
                 )
+            ),
+            Arguments.of("All Precedences",
+                "a OR b AND c < d + e * f - g / h",
+                new Ast.Expr.Binary(
+                    "AND",
+                    new Ast.Expr.Binary(
+                        "OR",
+                        new Ast.Expr.Variable("a"),
+                        new Ast.Expr.Variable("b")
+                    ),
+                    new Ast.Expr.Binary(
+                        "<",
+                        new Ast.Expr.Variable("c"),
+                        new Ast.Expr.Binary(
+                            "-",
+                            new Ast.Expr.Binary(
+                                "+",
+                                new Ast.Expr.Variable("d"),
+                                new Ast.Expr.Binary(
+                                    "*",
+                                    new Ast.Expr.Variable("e"),
+                                    new Ast.Expr.Variable("f")
+                                )
+                            ),
+                            new Ast.Expr.Binary(
+                                "/",
+                                new Ast.Expr.Variable("g"),
+                                new Ast.Expr.Variable("h")
+                            )
+                        )
+                    )
+                )
+            ),
+            Arguments.of("Comparison Chain",
+                "a <= b != c >= d",
+                new Ast.Expr.Binary(
+                    ">=",
+                    new Ast.Expr.Binary(
+                        "!=",
+                        new Ast.Expr.Binary(
+                            "<=",
+                            new Ast.Expr.Variable("a"),
+                            new Ast.Expr.Variable("b")
+                        ),
+                        new Ast.Expr.Variable("c")
+                    ),
+                    new Ast.Expr.Variable("d")
+                )
+            ),
+            Arguments.of("Not Binary Operator",
+                "a = b",
+                new ParseException("", Optional.of(new Token(Token.Type.OPERATOR, "=")))
             )
         );
     }
@@ -646,6 +740,384 @@ final class ParserTests {
         );
     }
 
+    @ParameterizedTest
+    @MethodSource
+    void testStreaming(String test, String input) {
+        var expected = Assertions.assertDoesNotThrow(() -> new Parser(new Lexer(input).lex()).parse("source"));
+        var received = Assertions.assertDoesNotThrow(() -> new Parser(new Lexer(new StringReader(input))).parse("source"));
+        Assertions.assertEquals(expected, received);
+    }
+
+    public static Stream<Arguments> testStreaming() {
+        return Stream.of(
+            Arguments.of("Hello World", """
+                DEF main() DO
+                    print("Hello, World!");
+                END
+                """),
+            Arguments.of("Larger Than Batch", "LET x = a.b(1, 2) + c * (d - 3);\n".repeat(100))
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void testStatements(String test, String input, int count) {
+        var expected = (Ast.Source) Assertions.assertDoesNotThrow(() -> new Parser(new Lexer(input).lex()).parse("source"));
+        var tokens = Assertions.assertDoesNotThrow(() -> new Lexer(input).lexBuffer());
+        for (var parser : List.of(new Parser(tokens), new Parser(new Lexer(new StringReader(input))))) {
+            var received = new ArrayList<Ast.Stmt>();
+            parser.statements().forEachRemaining(received::add);
+            Assertions.assertEquals(expected.statements(), received);
+            Assertions.assertEquals(count, received.size());
+        }
+    }
+
+    public static Stream<Arguments> testStatements() {
+        return Stream.of(
+            Arguments.of("Empty", "", 0),
+            Arguments.of("Multiple", "LET x = 1;\nDEF f() DO RETURN x; END\nf();", 3),
+            Arguments.of("Larger Than Batch", "LET x = a.b(1, 2) + c * (d - 3);\n".repeat(100), 100)
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void testParallel(String test, String input) {
+        var tokens = Assertions.assertDoesNotThrow(() -> new Lexer(input).lexBuffer());
+        var pool = new ForkJoinPool(4);
+        try {
+            var sequential = new Parser(tokens);
+            var parallel = new Parser(tokens);
+            try {
+                var expected = (Ast.Source) sequential.parse("source");
+                var received = Assertions.assertDoesNotThrow(() -> parallel.parseParallel(pool, 1));
+                Assertions.assertEquals(expected, received);
+                Assertions.assertEquals(sequential.spans().size(), parallel.spans().size());
+                for (int i = 0; i < expected.statements().size(); i++) {
+                    var statement = expected.statements().get(i);
+                    var body = statement instanceof Ast.Stmt.Def def ? def.body() : List.<Ast.Stmt>of();
+                    var receivedBody = statement instanceof Ast.Stmt.Def ? ((Ast.Stmt.Def) received.statements().get(i)).body() : List.<Ast.Stmt>of();
+                    Assertions.assertEquals(sequential.spans().get(statement), parallel.spans().get(received.statements().get(i)));
+                    for (int j = 0; j < body.size(); j++) {
+                        Assertions.assertEquals(sequential.spans().get(body.get(j)), parallel.spans().get(receivedBody.get(j)));
+                    }
+                }
+            } catch (ParseException expected) {
+                var received = Assertions.assertThrows(ParseException.class, () -> parallel.parseParallel(pool, 1));
+                Assertions.assertEquals(expected.getToken(), received.getToken());
+                Assertions.assertEquals(expected.getMessage(), received.getMessage());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    public static Stream<Arguments> testParallel() {
+        return Stream.of(
+            Arguments.of("Definitions", """
+                LET x = 1;
+                DEF f(a, b) DO
+                    IF a < b DO
+                        RETURN a;
+                    END
+                    LET o = OBJECT DO DEF m() DO RETURN this; END END;
+                    RETURN b;
+                END
+                DEF g() DO END
+                IF x DO DEF h() DO RETURN 1; END END
+                f(x, g());
+                """),
+            Arguments.of("Body Exception", "DEF f() DO\n    LET x = 1;\n    LET = 2;\nEND\nDEF g() DO LET ; END"),
+            Arguments.of("Top-Level Exception", "DEF f() DO LET x = 1; END\nLET = 2;\nDEF g() DO x; END"),
+            Arguments.of("Missing End", "DEF f() DO LET x = 1;"),
+            Arguments.of("Keywords As Identifiers", "DEF f() DO LET DO = 1; END\nEND;\nEND;")
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void testLazyBodies(String test, String input, int bodies) {
+        var tokens = Assertions.assertDoesNotThrow(() -> new Lexer(input).lexBuffer());
+        var eager = new Parser(tokens);
+        var lazy = new Parser(tokens);
+        lazy.setLazyBodies(true);
+        var received = Assertions.assertDoesNotThrow(() -> lazy.parse("source"));
+        try {
+            var expected = eager.parse("source");
+            //Only the statements in parsed bodies (and their expressions) have spans.
+            Assertions.assertEquals(bodies == 0, eager.spans().size() == lazy.spans().size());
+            Assertions.assertDoesNotThrow(lazy::parseBodies);
+            Assertions.assertEquals(eager.spans().size(), lazy.spans().size());
+            Assertions.assertEquals(expected, received);
+        } catch (ParseException expected) {
+            //The first access of the invalid body throws the eager exception.
+            var statements = ((Ast.Source) received).statements();
+            var unchecked = Assertions.assertThrows(UncheckedParseException.class, () -> accessBodies(statements));
+            Assertions.assertEquals(expected.getMessage(), unchecked.getCause().getMessage());
+            Assertions.assertEquals(expected.getToken(), unchecked.getCause().getToken());
+            var e = Assertions.assertThrows(ParseException.class, lazy::parseBodies);
+            Assertions.assertEquals(expected.getToken(), e.getToken());
+            Assertions.assertThrows(UncheckedParseException.class, received::toString);
+        }
+    }
+
+    public static Stream<Arguments> testLazyBodies() {
+        return Stream.of(
+            Arguments.of("No Definitions", "LET x = 1;", 0),
+            Arguments.of("Definitions", """
+                DEF f(a, b) DO
+                    IF a < b DO
+                        RETURN a;
+                    END
+                    LET o = OBJECT DO DEF m() DO RETURN this; END END;
+                END
+                DEF g() DO END
+                f(1, g());
+                """, 3),
+            Arguments.of("Body Exception", "DEF f() DO\n    LET = 1;\nEND\nf();", 1),
+            Arguments.of("Nested Body Exception", "DEF f() DO\n    DEF g() DO g(; END\nEND", 2),
+            Arguments.of("Missing Operand Body Exception", "DEF f() DO\n    RETURN 1 +;\nEND", 1),
+            Arguments.of("Keywords As Identifiers", "DEF f() DO LET DO = 1; END\nEND;\nEND;", 0),
+            Arguments.of("Keywords As Identifiers After Definitions", "DEF f() DO LET x = 1; END\nDEF g() DO LET DO = 1; END\nEND;", 1),
+            Arguments.of("Keywords As Identifiers In Calls", "DEF f() DO LET DO = 1; END\nEND(1);", 0),
+            Arguments.of("Nested Blocks", "DEF f(x) DO IF x DO FOR i IN x DO i; END ELSE LET o = OBJECT O DO END; END END", 1)
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void testAstCodec(String test, String input) {
+        var ast = (Ast.Source) Assertions.assertDoesNotThrow(() -> new Parser(new Lexer(input).lexBuffer()).parse("source"));
+        var bytes = AstCodec.encode(ast);
+        var decoded = AstCodec.decode(bytes);
+        Assertions.assertEquals(ast, decoded);
+        Assertions.assertArrayEquals(bytes, AstCodec.encode(decoded));
+        var truncated = Arrays.copyOf(bytes, bytes.length - 1);
+        Assertions.assertThrows(IllegalArgumentException.class, () -> AstCodec.decode(truncated));
+    }
+
+    public static Stream<Arguments> testAstCodec() {
+        return Stream.of(
+            Arguments.of("Empty", ""),
+            Arguments.of("Literals", """
+                NIL; TRUE; FALSE; 1; 123456789012345678901234567890;
+                1.5; 1.0e-10; 'c'; '\\n'; "string"; "";
+                """),
+            Arguments.of("Statements", """
+                LET x;
+                LET y = x + 1 * (2 - 3) / 4 < 5 AND y OR z;
+                DEF f(a, b) DO
+                    IF a < b DO RETURN a; ELSE RETURN; END
+                    FOR i IN list(a, b) DO i.name = i.method(a); END
+                END
+                LET o = OBJECT Name DO LET field = 1; DEF m() DO RETURN this.field; END END;
+                """)
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void testAstCodecCorrupted(String test, String input, byte[] original, byte[] corrupted) {
+        var ast = (Ast.Source) Assertions.assertDoesNotThrow(() -> new Parser(new Lexer(input).lexBuffer()).parse("source"));
+        var bytes = AstCodec.encode(ast);
+        var index = Bytes.indexOf(bytes, original);
+        Assertions.assertNotEquals(-1, index);
+        var modified = Bytes.concat(Arrays.copyOf(bytes, index), corrupted, Arrays.copyOfRange(bytes, index + original.length, bytes.length));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> AstCodec.decode(modified));
+    }
+
+    public static Stream<Arguments> testAstCodecCorrupted() {
+        return Stream.of(
+            //DECIMAL tag, scale 1 (zigzag), unscaled value 15 as 1 byte.
+            Arguments.of("Decimal Scale Overflow", "1.5;", new byte[] {13, 2}, new byte[] {13, -128, -128, -128, -128, -128, 0x40}),
+            Arguments.of("Decimal Empty Unscaled Value", "1.5;", new byte[] {13, 2, 1, 15}, new byte[] {13, 2, 0})
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource("testAstCodec")
+    void testAstArena(String test, String input) {
+        var ast = (Ast.Source) Assertions.assertDoesNotThrow(() -> new Parser(new Lexer(input).lexBuffer()).parse("source"));
+        var arena = AstArena.of(ast);
+        Assertions.assertEquals(AstArena.Kind.SOURCE, arena.kind(arena.root()));
+        Assertions.assertEquals(ast.statements().size(), arena.operands(arena.root()));
+        Assertions.assertEquals(ast, arena.toAst());
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void testAstArenaBytes(String test, String input) {
+        var ast = (Ast.Source) Assertions.assertDoesNotThrow(() -> new Parser(new Lexer(input.repeat(100)).lexBuffer()).parse("source"));
+        var arena = AstArena.of(ast);
+        //Even a lower bound on the size of the records is at least 1.5x the arena.
+        var records = recordBytes(ast);
+        Assertions.assertTrue(2 * arena.bytes() <= 3 * records, arena.bytes() + " arena bytes vs. " + records + " record bytes");
+    }
+
+    public static Stream<Arguments> testAstArenaBytes() {
+        return Stream.of(
+            Arguments.of("Representative", "DEF f(a, b) DO IF a < b DO RETURN a + 1 * (b - 2); END LET o = OBJECT DO LET x = \"s\"; END; o.x = f(a, 1.5); END\n"),
+            Arguments.of("Operators", "x = a + b * c - d / e < f AND g OR h == i;\n"),
+            Arguments.of("Loops", "FOR i IN list(1, 2, 3) DO LET x = i; total = total + x; END\n"),
+            Arguments.of("Objects", "LET o = OBJECT Name DO LET field = NIL; DEF m(x) DO RETURN this.field + x; END END;\n"),
+            Arguments.of("Literals", "print(\"string\", 'c', 12345678901234567890, 1.5e10);\n")
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void testAstInterner(String test, String input, boolean shared) {
+        var ast = (Ast.Source) Assertions.assertDoesNotThrow(() -> new Parser(new Lexer(input).lexBuffer()).parse("source"));
+        var interner = new AstInterner();
+        var interned = interner.intern(ast);
+        Assertions.assertEquals(ast, interned);
+        Assertions.assertSame(interned, interner.intern(ast));
+        if (shared) {
+            Assertions.assertSame(interned.statements().get(0), interned.statements().get(1));
+        }
+    }
+
+    public static Stream<Arguments> testAstInterner() {
+        return Stream.of(
+            Arguments.of("Empty", "", false),
+            Arguments.of("Repeated Statements", "x = y + 1;\nx = y + 1;", true),
+            Arguments.of("Repeated Definitions", """
+                DEF f(a) DO IF a < 1 DO RETURN a; END LET o = OBJECT DO LET x = 1.0; END; END
+                DEF f(a) DO IF a < 1 DO RETURN a; END LET o = OBJECT DO LET x = 1.0; END; END
+                """, true),
+            Arguments.of("Different Literals", "1.0;\n1.00;\n'c';\n\"c\";", false)
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void testAstCache(String test, String input) throws IOException {
+        var directory = Files.createTempDirectory("ast");
+        try {
+            var cache = new AstCache(directory);
+            var parsed = Assertions.assertDoesNotThrow(() -> cache.parse(input));
+            Assertions.assertTrue(Files.exists(cache.path(input)));
+            Assertions.assertEquals(Optional.of(parsed), cache.load(input));
+            Assertions.assertEquals(Optional.empty(), cache.load(input + " "));
+            //A corrupted entry is a miss, and is replaced when parsed again.
+            Files.write(cache.path(input), new byte[] {1, 2, 3});
+            Assertions.assertEquals(Optional.empty(), cache.load(input));
+            Assertions.assertEquals(parsed, Assertions.assertDoesNotThrow(() -> cache.parse(input)));
+            Assertions.assertEquals(Optional.of(parsed), cache.load(input));
+        } finally {
+            try (var files = Files.list(directory)) {
+                for (var file : files.toList()) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(directory);
+        }
+    }
+
+    public static Stream<Arguments> testAstCache() {
+        return Stream.of(
+            Arguments.of("Program", "DEF f(x) DO RETURN x + 1; END\nLET y = f(1);")
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void testStatementsException(String test, String input, int count, Token token) {
+        var statements = Assertions.assertDoesNotThrow(() -> new Parser(new Lexer(input).lexBuffer())).statements();
+        for (int i = 0; i < count; i++) {
+            Assertions.assertDoesNotThrow(statements::next);
+        }
+        var e = Assertions.assertThrows(UncheckedParseException.class, statements::next);
+        Assertions.assertEquals(Optional.of(token), e.getCause().getToken());
+    }
+
+    public static Stream<Arguments> testStatementsException() {
+        return Stream.of(
+            Arguments.of("First", "LET = 1;", 0, new Token(Token.Type.OPERATOR, "=")),
+            Arguments.of("After Valid", "LET x = 1;\nx = 2;\nLET ;", 2, new Token(Token.Type.OPERATOR, ";"))
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void testSpans(String test, String input, List<String> expected) {
+        //Each statement (and its expression, if any) as line:column text.
+        var tokens = Assertions.assertDoesNotThrow(() -> new Lexer(input).lexBuffer());
+        var parser = new Parser(tokens);
+        var source = (Ast.Source) Assertions.assertDoesNotThrow(() -> parser.parse("source"));
+        var received = new ArrayList<String>();
+        for (var stmt : source.statements()) {
+            var nodes = switch (stmt) {
+                case Ast.Stmt.Let let -> let.value().<List<Ast>>map(value -> List.of(let, value)).orElse(List.of(let));
+                case Ast.Stmt.Expression expression -> List.of(expression, expression.expression());
+                case Ast.Stmt.Assignment assignment -> List.of(assignment, assignment.expression(), assignment.value());
+                default -> List.<Ast>of(stmt);
+            };
+            for (var node : nodes) {
+                var span = parser.spans().get(node).orElseThrow();
+                var text = tokens.source().subSequence(Span.start(span), Span.end(span));
+                received.add(tokens.lines().format(Span.start(span)) + " " + text);
+            }
+        }
+        Assertions.assertEquals(expected, received);
+    }
+
+    public static Stream<Arguments> testSpans() {
+        return Stream.of(
+            Arguments.of("Let", "LET x = 1 + 2;", List.of("1:1 LET x = 1 + 2;", "1:9 1 + 2")),
+            Arguments.of("Multiple Lines", "LET x;\n  print(\n    x);", List.of("1:1 LET x;", "2:3 print(\n    x);", "2:3 print(\n    x)")),
+            Arguments.of("Assignment", "x.y = (a OR b).c(1);", List.of("1:1 x.y = (a OR b).c(1);", "1:1 x.y", "1:7 (a OR b).c(1)")),
+            Arguments.of("Def", "DEF f() DO\nRETURN 1;\nEND", List.of("1:1 DEF f() DO\nRETURN 1;\nEND"))
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void testMaxDepth(String test, String input, int maxDepth, Object expected) {
+        var parser = new Parser(Assertions.assertDoesNotThrow(() -> new Lexer(input).lexBuffer()));
+        if (maxDepth != 0) {
+            parser.setMaxDepth(maxDepth);
+        }
+        switch (expected) {
+            case Integer depth -> {
+                var expr = (Ast.Expr) Assertions.assertDoesNotThrow(() -> parser.parse("expr"));
+                Assertions.assertEquals(Span.of(0, input.length()), parser.spans().get(expr).orElseThrow());
+                //Walked iteratively, since the AST is too deep for equals().
+                var received = 0;
+                while (expr instanceof Ast.Expr.Group || expr instanceof Ast.Expr.Function) {
+                    expr = expr instanceof Ast.Expr.Group group ? group.expression() : ((Ast.Expr.Function) expr).arguments().getFirst();
+                    received++;
+                }
+                Assertions.assertEquals((int) depth, received);
+                Assertions.assertEquals(new Ast.Expr.Literal(BigInteger.ONE), expr);
+            }
+            case ParseException e -> {
+                var received = Assertions.assertThrows(ParseException.class, () -> parser.parse("expr"));
+                if (e.getToken().isPresent()) {
+                    Assertions.assertEquals(e.getToken(), received.getToken());
+                }
+            }
+            default -> throw new AssertionError(expected);
+        }
+    }
+
+    public static Stream<Arguments> testMaxDepth() {
+        return Stream.of(
+            Arguments.of("Groups", "(((1)))", 3, 3),
+            Arguments.of("Deep Groups", "(".repeat(100_000) + "1" + ")".repeat(100_000), 100_000, 100_000),
+            Arguments.of("Deep Calls", "f(".repeat(100_000) + "1" + ")".repeat(100_000), 100_000, 100_000),
+            Arguments.of("Exceeded", "(((1)))", 2,
+                new ParseException("", Optional.of(new Token(Token.Type.OPERATOR, "(")))
+            ),
+            Arguments.of("Exceeded Call", "f(g(1))", 1,
+                new ParseException("", Optional.of(new Token(Token.Type.OPERATOR, "(")))
+            ),
+            Arguments.of("Recursive Overflow", "(".repeat(100_000) + "1" + ")".repeat(100_000), 0,
+                new ParseException("", Optional.empty())
+            )
+        );
+    }
+
     interface ParserMethod<T extends Ast> {
         T invoke(Parser parser) throws ParseException;
     }
@@ -670,4 +1142,44 @@ final class ParserTests {
         }
     }
 
+    /**
+     * Returns a lower bound on the memory of the records, Lists, and Optionals
+     * of the tree, assuming compressed references (a 12 byte header and 4
+     * bytes per field, padded to 8) and counting only the backing array of a
+     * List. Names and literal values are excluded, as AstArena shares them.
+     */
+    private static long recordBytes(Object object) {
+        return switch (object) {
+            case Ast ast -> {
+                var components = ast.getClass().getRecordComponents();
+                var bytes = (12 + 4L * components.length + 7) & ~7;
+                for (var component : components) {
+                    try {
+                        bytes += recordBytes(component.getAccessor().invoke(ast));
+                    } catch (ReflectiveOperationException e) {
+                        throw new AssertionError(e);
+                    }
+                }
+                yield bytes;
+            }
+            case List<?> list -> {
+                var bytes = list.isEmpty() ? 0 : (16 + 4L * list.size() + 7) & ~7;
+                for (var element : list) {
+                    bytes += recordBytes(element);
+                }
+                yield bytes;
+            }
+            case Optional<?> optional -> optional.isPresent() ? 16 + recordBytes(optional.get()) : 0;
+            case null, default -> 0;
+        };
+    }
+
+    private static void accessBodies(List<Ast.Stmt> statements) {
+        for (var stmt : statements) {
+            if (stmt instanceof Ast.Stmt.Def def) {
+                accessBodies(def.body());
+            }
+        }
+    }
+
 }